@@ -53,52 +53,113 @@ struct prox_offset_t {
     uint16_t offset;
 };
 
-JNIEXPORT jboolean JNICALL Java_org_cyanogenmod_sensors_ProximityCalibrateActivity_native_1calibrateProximity(
-        JNIEnv *env, UNUSED jclass clazz, jintArray intArray)
+/* Values per sample, in the order PARAM_* in ProximityCalibrator */
+#define PARAM_COUNT                  5
+#define MAX_SAMPLES                  16
+
+JNIEXPORT jint JNICALL Java_org_cyanogenmod_sensors_ProximityCalibrator_native_1open(
+        UNUSED JNIEnv *env, UNUSED jclass clazz)
 {
-    jboolean result = false;
-    int32_t *array = (*env)->GetIntArrayElements(env, intArray, NULL);
-    int len = (int) (*env)->GetArrayLength(env, intArray);
-    struct prox_offset_t offset;
     int fd, ret;
 
-    if (len != 5) {
-        ALOGE("%s:%d: insufficient array space\n", __func__, __LINE__);
-        result = false;
-        goto err_release;
-    }
-
-    fd = open(ALSPROX_DEVICE_NAME, O_RDWR);
+    fd = open(ALSPROX_DEVICE_NAME, O_RDWR | O_CLOEXEC);
     if (fd < 0) {
         ret = -errno;
         ALOGE("%s:%d: failed to open %s: %d\n",
                 __func__, __LINE__, ALSPROX_DEVICE_NAME, ret);
-        result = false;
-        goto err_release;
+        return ret;
+    }
+
+    return fd;
+}
+
+/*
+ * Runs up to count calibrations on an open device and stores the values of
+ * each one in intArray, PARAM_COUNT values per sample. Returns the number of
+ * samples stored, which is less than count if a calibration failed.
+ */
+JNIEXPORT jint JNICALL Java_org_cyanogenmod_sensors_ProximityCalibrator_native_1sample(
+        JNIEnv *env, UNUSED jclass clazz, jint fd, jintArray intArray, jint count)
+{
+    jint values[MAX_SAMPLES * PARAM_COUNT];
+    int len = (int) (*env)->GetArrayLength(env, intArray);
+    struct prox_offset_t offset;
+    int i, ret;
+
+    if (count > MAX_SAMPLES) {
+        count = MAX_SAMPLES;
+    }
+    if (count * PARAM_COUNT > len) {
+        count = len / PARAM_COUNT;
+    }
+    if (count <= 0) {
+        ALOGE("%s:%d: insufficient array space\n", __func__, __LINE__);
+        return 0;
+    }
+
+    for (i = 0; i < count; i++) {
+        memset(&offset, 0, sizeof(struct prox_offset_t));
+        ret = ioctl(fd, ALSPROX_IOCTL_PROX_CALIBRATE, &offset);
+        if (ret < 0) {
+            ret = -errno;
+            ALOGE("%s:%d: ALSPROX_IOCTL_PROX_CALIBRATE failed: %d\n",
+                    __func__, __LINE__, ret);
+            break;
+        }
+
+        values[i * PARAM_COUNT + 0] = offset.hi;
+        values[i * PARAM_COUNT + 1] = offset.lo;
+        values[i * PARAM_COUNT + 2] = offset.xtalk;
+        values[i * PARAM_COUNT + 3] = offset.result;
+        values[i * PARAM_COUNT + 4] = offset.offset;
+    }
+
+    if (i > 0) {
+        (*env)->SetIntArrayRegion(env, intArray, 0, i * PARAM_COUNT, values);
+    }
+
+    return i;
+}
+
+/*
+ * Hands a previously calibrated result back to the driver, so it doesn't
+ * need a new calibration pass. intArray holds the values of one sample.
+ */
+JNIEXPORT jboolean JNICALL Java_org_cyanogenmod_sensors_ProximityCalibrator_native_1setOffset(
+        JNIEnv *env, UNUSED jclass clazz, jint fd, jintArray intArray)
+{
+    jint values[PARAM_COUNT];
+    struct prox_offset_t offset;
+    int ret;
+
+    if ((*env)->GetArrayLength(env, intArray) < PARAM_COUNT) {
+        ALOGE("%s:%d: insufficient array space\n", __func__, __LINE__);
+        return false;
     }
+    (*env)->GetIntArrayRegion(env, intArray, 0, PARAM_COUNT, values);
 
     memset(&offset, 0, sizeof(struct prox_offset_t));
-    ret = ioctl(fd, ALSPROX_IOCTL_PROX_CALIBRATE, &offset);
+    offset.hi = values[0];
+    offset.lo = values[1];
+    offset.xtalk = values[2];
+    offset.result = values[3];
+    offset.offset = values[4];
+
+    ret = ioctl(fd, ALSPROX_IOCTL_PROX_OFFSET, &offset);
     if (ret < 0) {
         ret = -errno;
-        ALOGE("%s:%d: ALSPROX_IOCTL_PROX_CALIBRATE failed: %d\n",
+        ALOGE("%s:%d: ALSPROX_IOCTL_PROX_OFFSET failed: %d\n",
                 __func__, __LINE__, ret);
-        result = false;
-        goto err_close;
+        return false;
     }
 
-    array[0] = offset.hi;
-    array[1] = offset.lo;
-    array[2] = offset.xtalk;
-    array[3] = offset.result;
-    array[4] = offset.offset;
-
-    result = (offset.result == 1) ? true : false;
-
-err_close:
-    close(fd);
-err_release:
-    (*env)->ReleaseIntArrayElements(env, intArray, array, 0);
+    return true;
+}
 
-    return result;
+JNIEXPORT void JNICALL Java_org_cyanogenmod_sensors_ProximityCalibrator_native_1close(
+        UNUSED JNIEnv *env, UNUSED jclass clazz, jint fd)
+{
+    if (fd >= 0) {
+        close(fd);
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_MAX;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Restores the last good calibration, so the sensor doesn't have to be
+ * calibrated again after every boot.
+ */
+public class BootReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "ProximityCalibrate";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            return;
+        }
+
+        int[] parameters = new int[PARAM_MAX];
+        if (!CalibrationStore.load(context, parameters)) {
+            return;
+        }
+        if (ProximityCalibrator.applyOffset(parameters)) {
+            Log.i(TAG, "Restored saved proximity calibration");
+        } else {
+            Log.e(TAG, "Unable to restore saved proximity calibration");
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MIDDLE;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_CROSSTALK;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_HI;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_LO;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Draws the crosstalk, high and low values of the samples in a
+ * {@link SampleHistory}, oldest on the left. Everything needed for drawing
+ * is allocated up front.
+ */
+public class CalibrationChartView extends View {
+
+    private static final int[] SERIES = { PARAM_CROSSTALK, PARAM_HI, PARAM_LO };
+    private static final int[] COLORS = { Color.YELLOW, Color.RED, Color.CYAN };
+
+    private final Paint[] mPaints = new Paint[SERIES.length];
+    private final Paint mThresholdPaint = new Paint();
+    private SampleHistory mHistory;
+    private float[] mPoints;
+
+    public CalibrationChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        for (int i = 0; i < SERIES.length; i++) {
+            mPaints[i] = new Paint();
+            mPaints[i].setColor(COLORS[i]);
+            mPaints[i].setStrokeWidth(2);
+            mPaints[i].setAntiAlias(true);
+        }
+        mThresholdPaint.setColor(Color.GRAY);
+    }
+
+    void setHistory(SampleHistory history) {
+        mHistory = history;
+        // Two points per line segment
+        mPoints = new float[history.getCapacity() * 4];
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        final SampleHistory history = mHistory;
+        if (history == null) {
+            return;
+        }
+        final int size = history.size();
+        final int width = getWidth();
+        final int height = getHeight();
+
+        int max = CROSSTALK_MIDDLE * 2;
+        for (int age = 0; age < size; age++) {
+            for (int series : SERIES) {
+                max = Math.max(max, history.get(age, series));
+            }
+        }
+        final float scaleX = (float) width / Math.max(1, history.getCapacity() - 1);
+        final float scaleY = (float) height / max;
+
+        final float middle = height - CROSSTALK_MIDDLE * scaleY;
+        canvas.drawLine(0, middle, width, middle, mThresholdPaint);
+
+        if (size < 2) {
+            return;
+        }
+        for (int i = 0; i < SERIES.length; i++) {
+            int count = 0;
+            for (int age = size - 1; age > 0; age--) {
+                mPoints[count++] = width - age * scaleX;
+                mPoints[count++] = height - history.get(age, SERIES[i]) * scaleY;
+                mPoints[count++] = width - (age - 1) * scaleX;
+                mPoints[count++] = height - history.get(age - 1, SERIES[i]) * scaleY;
+            }
+            canvas.drawLines(mPoints, 0, count, mPaints[i]);
+        }
+    }
+}
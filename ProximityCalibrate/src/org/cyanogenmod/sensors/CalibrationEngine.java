@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MAX;
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MIDDLE;
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MIN;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_CROSSTALK;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_MAX;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_RESULT;
+
+import android.os.SystemClock;
+
+/**
+ * Decides when a calibration run has produced a stable reading.
+ *
+ * The last samples are kept in a ring buffer with a running mean and
+ * variance of every parameter. The run has converged once the buffer is
+ * full and the confidence interval of the mean crosstalk lies entirely in
+ * one of the good / inferior / fail bands. A run that doesn't converge
+ * within the attempt limit ends with the band of the mean, marked as not
+ * converged.
+ */
+class CalibrationEngine {
+
+    static final int VERDICT_NONE = -1;
+    static final int VERDICT_GOOD = 0;
+    static final int VERDICT_INFERIOR = 1;
+    static final int VERDICT_FAIL = 2;
+
+    // Calibration results that come with a crosstalk reading. The driver
+    // reports too bright (3) for readings disturbed by ambient light.
+    private static final int RESULT_NONE = 0;
+    private static final int RESULT_GOOD = 1;
+    private static final int RESULT_FAIL = 2;
+
+    // z for a two sided 99% confidence interval
+    private static final double CONFIDENCE_Z = 2.576;
+
+    private final int mWindow;
+    private final int mMaxAttempts;
+
+    // mWindow samples of PARAM_MAX values each
+    private final int[] mSamples;
+    private final double[] mMean = new double[PARAM_MAX];
+    private final double[] mM2 = new double[PARAM_MAX];
+    private int mHead;
+    private int mCount;
+    private int mAttempts;
+    private int mVerdict = VERDICT_NONE;
+    private boolean mConverged;
+    private long mStartTime;
+    private long mEndTime;
+
+    CalibrationEngine(int window, int maxAttempts) {
+        mWindow = window;
+        mMaxAttempts = maxAttempts;
+        mSamples = new int[window * PARAM_MAX];
+    }
+
+    void reset() {
+        for (int i = 0; i < PARAM_MAX; i++) {
+            mMean[i] = 0;
+            mM2[i] = 0;
+        }
+        mHead = 0;
+        mCount = 0;
+        mAttempts = 0;
+        mVerdict = VERDICT_NONE;
+        mConverged = false;
+        mStartTime = SystemClock.elapsedRealtime();
+        mEndTime = 0;
+    }
+
+    /**
+     * Adds the result of one calibration attempt. Attempts that could not be
+     * read or were disturbed by ambient light only count towards the attempt
+     * limit. When the driver reports no calibration or a failed one, the
+     * crosstalk it measured is still used: the verdict is about that reading,
+     * and a window that keeps failing should settle on VERDICT_FAIL rather
+     * than run into the attempt limit.
+     *
+     * @return true once the run is finished
+     */
+    boolean addSample(int[] parameters) {
+        if (isFinished()) {
+            return true;
+        }
+        mAttempts++;
+
+        final int result = parameters[PARAM_RESULT];
+        if (result == RESULT_NONE || result == RESULT_GOOD || result == RESULT_FAIL) {
+            if (mCount == mWindow) {
+                remove(mHead);
+            } else {
+                mCount++;
+            }
+            add(mHead, parameters);
+            mHead = (mHead + 1) % mWindow;
+        }
+
+        if (mCount == mWindow) {
+            final double mean = mMean[PARAM_CROSSTALK];
+            final double margin =
+                    CONFIDENCE_Z * Math.sqrt(getVariance(PARAM_CROSSTALK) / mCount);
+            final int low = classify(mean - margin);
+            if (low == classify(mean + margin)) {
+                mVerdict = low;
+                mConverged = true;
+            }
+        }
+        if (mVerdict == VERDICT_NONE && mAttempts >= mMaxAttempts) {
+            mVerdict = mCount > 0 ? classify(mMean[PARAM_CROSSTALK]) : VERDICT_FAIL;
+        }
+        if (isFinished()) {
+            mEndTime = SystemClock.elapsedRealtime();
+        }
+        return isFinished();
+    }
+
+    // Welford's update, extended to also take a sample back out of the window
+    private void add(int slot, int[] parameters) {
+        final int n = mCount;
+        for (int i = 0; i < PARAM_MAX; i++) {
+            final int x = parameters[i];
+            mSamples[slot * PARAM_MAX + i] = x;
+            final double delta = x - mMean[i];
+            mMean[i] += delta / n;
+            mM2[i] += delta * (x - mMean[i]);
+        }
+    }
+
+    private void remove(int slot) {
+        final int n = mCount - 1;
+        for (int i = 0; i < PARAM_MAX; i++) {
+            final int x = mSamples[slot * PARAM_MAX + i];
+            if (n == 0) {
+                mMean[i] = 0;
+                mM2[i] = 0;
+                continue;
+            }
+            final double oldMean = mMean[i];
+            mMean[i] = (oldMean * mCount - x) / n;
+            mM2[i] = Math.max(0, mM2[i] - (x - oldMean) * (x - mMean[i]));
+        }
+    }
+
+    private static int classify(double crosstalk) {
+        if (crosstalk >= CROSSTALK_MIN && crosstalk <= CROSSTALK_MIDDLE) {
+            return VERDICT_GOOD;
+        } else if (crosstalk > CROSSTALK_MIDDLE && crosstalk <= CROSSTALK_MAX) {
+            return VERDICT_INFERIOR;
+        }
+        return VERDICT_FAIL;
+    }
+
+    /**
+     * Summary of a finished run, safe to hand to another thread.
+     */
+    static final class Result {
+        final int verdict;
+        final boolean converged;
+        final int samples;
+        final int attempts;
+        final long durationMillis;
+        final double[] mean = new double[PARAM_MAX];
+        final double[] stdDev = new double[PARAM_MAX];
+        // Last usable sample, all 0 if there was none
+        final int[] last = new int[PARAM_MAX];
+
+        private Result(CalibrationEngine engine) {
+            verdict = engine.mVerdict;
+            converged = engine.mConverged;
+            samples = engine.mCount;
+            attempts = engine.mAttempts;
+            durationMillis = (engine.mEndTime > 0 ? engine.mEndTime
+                    : SystemClock.elapsedRealtime()) - engine.mStartTime;
+            for (int i = 0; i < PARAM_MAX; i++) {
+                mean[i] = engine.getMean(i);
+                stdDev[i] = engine.getStdDev(i);
+            }
+            if (samples > 0) {
+                final int slot = (engine.mHead + engine.mWindow - 1) % engine.mWindow;
+                System.arraycopy(engine.mSamples, slot * PARAM_MAX, last, 0, PARAM_MAX);
+            }
+        }
+    }
+
+    Result getResult() {
+        return new Result(this);
+    }
+
+    boolean isFinished() {
+        return mVerdict != VERDICT_NONE;
+    }
+
+    boolean isConverged() {
+        return mConverged;
+    }
+
+    int getVerdict() {
+        return mVerdict;
+    }
+
+    int getSampleCount() {
+        return mCount;
+    }
+
+    int getAttempts() {
+        return mAttempts;
+    }
+
+    double getMean(int param) {
+        return mMean[param];
+    }
+
+    double getVariance(int param) {
+        return mCount > 1 ? mM2[param] / (mCount - 1) : 0;
+    }
+
+    double getStdDev(int param) {
+        return Math.sqrt(getVariance(param));
+    }
+}
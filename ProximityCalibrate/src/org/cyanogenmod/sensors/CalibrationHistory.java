@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_CROSSTALK;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_HI;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_LO;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_OFFSET;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_RESULT;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only log of every calibration run, for spotting crosstalk drift.
+ *
+ * The log is a memory mapped file of fixed width records after a 16 byte
+ * header (magic, version, record size, record count). Records are appended
+ * in time order. Once the log is full, the newest half is copied to a new
+ * file which then replaces it. Queries read the mapped records directly.
+ *
+ * Each 24 byte record holds the wall clock start time of the run, the mean hi,
+ * lo, crosstalk and offset, the driver result of the last usable sample,
+ * the verdict, whether the readings settled and the number of samples.
+ */
+class CalibrationHistory {
+
+    private static final String TAG = "ProximityCalibrate";
+
+    private static final String FILE_NAME = "calibration_history.log";
+
+    private static final int MAGIC = 0x50584849; // "PXHI"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int COUNT_OFFSET = 8;
+    private static final int RECORD_SIZE = 24;
+    private static final int CAPACITY = 4096;
+
+    // Record layout
+    private static final int TIME = 0;
+    private static final int HI = 8;
+    private static final int LO = 10;
+    private static final int CROSSTALK = 12;
+    private static final int OFFSET = 14;
+    private static final int RESULT = 16;
+    private static final int VERDICT = 17;
+    private static final int CONVERGED = 18;
+    private static final int SAMPLES = 20;
+
+    private static CalibrationHistory sInstance;
+
+    private final File mFile;
+    private MappedByteBuffer mBuffer;
+    private int mCount;
+    // Scratch space for percentile queries
+    private int[] mScratch = new int[0];
+
+    static synchronized CalibrationHistory get(Context context) {
+        if (sInstance == null) {
+            sInstance = new CalibrationHistory(
+                    new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    private CalibrationHistory(File file) {
+        mFile = file;
+    }
+
+    private boolean ensureOpen() {
+        if (mBuffer != null) {
+            return true;
+        }
+        try {
+            mBuffer = map(mFile);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to open calibration history", e);
+            return false;
+        }
+        if (mBuffer.getInt(0) != MAGIC || mBuffer.getShort(4) != VERSION
+                || mBuffer.getShort(6) != RECORD_SIZE) {
+            // New or unknown file, start over
+            initHeader(mBuffer);
+        }
+        mCount = Math.max(0, Math.min(mBuffer.getInt(COUNT_OFFSET), CAPACITY));
+        return true;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    HEADER_SIZE + CAPACITY * RECORD_SIZE);
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private static void initHeader(MappedByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) RECORD_SIZE);
+        buffer.putInt(COUNT_OFFSET, 0);
+        buffer.putInt(12, 0);
+    }
+
+    /**
+     * Appends a run. Runs with an earlier time than the last one are logged
+     * with the last one's time, so the log stays sorted.
+     */
+    synchronized void add(long time, CalibrationEngine.Result result) {
+        if (!ensureOpen()) {
+            return;
+        }
+        if (mCount == CAPACITY && !compact()) {
+            return;
+        }
+        if (mCount > 0) {
+            time = Math.max(time, getTime(mCount - 1));
+        }
+
+        final int base = HEADER_SIZE + mCount * RECORD_SIZE;
+        mBuffer.putLong(base + TIME, time);
+        mBuffer.putShort(base + HI, (short) Math.round(result.mean[PARAM_HI]));
+        mBuffer.putShort(base + LO, (short) Math.round(result.mean[PARAM_LO]));
+        mBuffer.putShort(base + CROSSTALK, (short) Math.round(result.mean[PARAM_CROSSTALK]));
+        mBuffer.putShort(base + OFFSET, (short) Math.round(result.mean[PARAM_OFFSET]));
+        mBuffer.put(base + RESULT, (byte) result.last[PARAM_RESULT]);
+        mBuffer.put(base + VERDICT, (byte) result.verdict);
+        mBuffer.put(base + CONVERGED, (byte) (result.converged ? 1 : 0));
+        mBuffer.putShort(base + SAMPLES, (short) Math.min(result.samples, Short.MAX_VALUE));
+        // Only count the record once it is complete
+        mCount++;
+        mBuffer.putInt(COUNT_OFFSET, mCount);
+        mBuffer.force();
+    }
+
+    /**
+     * Replaces the log with one holding its newest half.
+     */
+    private boolean compact() {
+        final int keep = CAPACITY / 2;
+        final File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            MappedByteBuffer buffer = map(temp);
+            initHeader(buffer);
+            for (int i = 0; i < keep * RECORD_SIZE; i++) {
+                buffer.put(HEADER_SIZE + i,
+                        mBuffer.get(HEADER_SIZE + (mCount - keep) * RECORD_SIZE + i));
+            }
+            buffer.putInt(COUNT_OFFSET, keep);
+            buffer.force();
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Unable to replace " + mFile);
+            }
+            mBuffer = buffer;
+            mCount = keep;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to compact calibration history", e);
+            temp.delete();
+            return false;
+        }
+    }
+
+    synchronized int size() {
+        return ensureOpen() ? mCount : 0;
+    }
+
+    private long getTime(int index) {
+        return mBuffer.getLong(HEADER_SIZE + index * RECORD_SIZE + TIME);
+    }
+
+    private int getSamples(int index) {
+        return mBuffer.getShort(HEADER_SIZE + index * RECORD_SIZE + SAMPLES);
+    }
+
+    private int getCrosstalk(int index) {
+        return mBuffer.getShort(HEADER_SIZE + index * RECORD_SIZE + CROSSTALK) & 0xffff;
+    }
+
+    /**
+     * Returns the given percentile of the mean crosstalk of the newest
+     * {@code runs} runs, skipping those without a usable sample. Returns -1
+     * if none of them has one.
+     */
+    synchronized int getCrosstalkPercentile(int runs, int percent) {
+        if (!ensureOpen()) {
+            return -1;
+        }
+        return percentile(Math.max(0, mCount - runs), mCount, percent);
+    }
+
+    private int percentile(int from, int to, int percent) {
+        if (mScratch.length < to - from) {
+            mScratch = new int[to - from];
+        }
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            if (getSamples(i) > 0) {
+                mScratch[n++] = getCrosstalk(i);
+            }
+        }
+        if (n == 0) {
+            return -1;
+        }
+        Arrays.sort(mScratch, 0, n);
+        final int rank = (int) Math.ceil(percent / 100.0 * n) - 1;
+        return mScratch[Math.max(0, Math.min(rank, n - 1))];
+    }
+}
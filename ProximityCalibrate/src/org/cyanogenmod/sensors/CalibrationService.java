@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_CROSSTALK;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_HI;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_LO;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_OFFSET;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.os.PowerManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * Runs a calibration without any UI, e.g. from the shell:
+ *
+ *   am startservice -a org.cyanogenmod.sensors.action.CALIBRATE
+ *
+ * Every run appends one JSON line with the verdict, the timing and the
+ * mean, deviation and last value of every parameter to calibration.jsonl in
+ * the app's files directory and logs it, along with the median and 90th
+ * percentile crosstalk of the last runs kept in the
+ * {@link CalibrationHistory}.
+ */
+public class CalibrationService extends IntentService {
+
+    private static final String TAG = "ProximityCalibrate";
+
+    public static final String ACTION_CALIBRATE = "org.cyanogenmod.sensors.action.CALIBRATE";
+
+    // Always in our own files directory, the service runs as the system uid
+    private static final String OUTPUT_FILE = "calibration.jsonl";
+
+    // Recent runs summarized from the calibration history
+    private static final int HISTORY_RUNS = 20;
+
+    private static final String[] VERDICT_NAMES = { "good", "inferior", "fail" };
+    private static final String[] PARAM_NAMES = { "hi", "lo", "crosstalk", "result", "offset" };
+
+    private final ProximityCalibrator mCalibrator = new ProximityCalibrator();
+
+    public CalibrationService() {
+        super(TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null || !ACTION_CALIBRATE.equals(intent.getAction())) {
+            return;
+        }
+
+        File file = new File(getFilesDir(), OUTPUT_FILE);
+
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, TAG);
+        final long startTime = System.currentTimeMillis();
+        CalibrationEngine.Result result;
+        wakeLock.acquire();
+        try {
+            result = mCalibrator.run(null);
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Calibration interrupted");
+            return;
+        } finally {
+            wakeLock.release();
+        }
+
+        // Every run goes into the history, whether or not it is saved
+        CalibrationHistory history = CalibrationHistory.get(this);
+        history.add(startTime, result);
+        if (CalibrationStore.saveIfGood(this, result)) {
+            Log.i(TAG, "Saved calibration");
+        }
+
+        String line = toJson(startTime, result, history);
+        Log.i(TAG, line);
+
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file, true);
+            writer.write(line);
+            writer.write('\n');
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write calibration result to " + file, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static String toJson(long startTime, CalibrationEngine.Result result,
+            CalibrationHistory history) {
+        StringBuilder builder = new StringBuilder(512);
+        builder.append("{\"time\":").append(startTime);
+        builder.append(",\"duration_ms\":").append(result.durationMillis);
+        builder.append(",\"attempts\":").append(result.attempts);
+        builder.append(",\"samples\":").append(result.samples);
+        builder.append(",\"verdict\":\"").append(VERDICT_NAMES[result.verdict]).append('"');
+        builder.append(",\"converged\":").append(result.converged);
+        appendParams(builder, "mean", result.mean);
+        appendParams(builder, "stddev", result.stdDev);
+        builder.append(",\"last\":{");
+        for (int i = 0; i < PARAM_NAMES.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(PARAM_NAMES[i]).append("\":").append(result.last[i]);
+        }
+        builder.append('}');
+        builder.append(",\"history\":{\"runs\":").append(history.size());
+        builder.append(",\"crosstalk_p50\":")
+                .append(history.getCrosstalkPercentile(HISTORY_RUNS, 50));
+        builder.append(",\"crosstalk_p90\":")
+                .append(history.getCrosstalkPercentile(HISTORY_RUNS, 90));
+        builder.append("}}");
+        return builder.toString();
+    }
+
+    private static void appendParams(StringBuilder builder, String name, double[] values) {
+        final int[] params = { PARAM_HI, PARAM_LO, PARAM_CROSSTALK, PARAM_OFFSET };
+        builder.append(",\"").append(name).append("\":{");
+        for (int i = 0; i < params.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append('"').append(PARAM_NAMES[params[i]]).append("\":");
+            builder.append(Math.round(values[params[i]] * 10) / 10.0);
+        }
+        builder.append('}');
+    }
+}
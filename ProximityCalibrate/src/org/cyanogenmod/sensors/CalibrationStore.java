@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_CROSSTALK;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_HI;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_LO;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_OFFSET;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_RESULT;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The last good calibration, kept so it can be handed back to the driver
+ * at boot.
+ *
+ * The record is 28 bytes: magic, version, two bytes of padding, the wall
+ * clock time of the calibration, the hi, lo, crosstalk and offset values as
+ * unsigned 16 bit integers, and a CRC32 of everything before it.
+ */
+class CalibrationStore {
+
+    private static final String TAG = "ProximityCalibrate";
+
+    private static final String FILE_NAME = "proximity_offset.bin";
+
+    private static final int MAGIC = 0x5058434c; // "PXCL"
+    private static final short VERSION = 1;
+    private static final int RECORD_SIZE = 28;
+    private static final int CRC_OFFSET = RECORD_SIZE - 4;
+
+    // Driver result for a good calibration
+    private static final int RESULT_GOOD = 1;
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * Saves the last sample of a run if the run settled on a good verdict
+     * and the driver reported that sample as a good calibration.
+     *
+     * @return true if the result was saved
+     */
+    static boolean saveIfGood(Context context, CalibrationEngine.Result result) {
+        if (!result.converged || result.verdict != CalibrationEngine.VERDICT_GOOD
+                || result.last[PARAM_RESULT] != RESULT_GOOD) {
+            return false;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putShort((short) result.last[PARAM_HI]);
+        buffer.putShort((short) result.last[PARAM_LO]);
+        buffer.putShort((short) result.last[PARAM_CROSSTALK]);
+        buffer.putShort((short) result.last[PARAM_OFFSET]);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, CRC_OFFSET);
+        buffer.putInt((int) crc.getValue());
+
+        AtomicFile file = getFile(context);
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(buffer.array());
+            file.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save calibration", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reads the saved calibration into parameters, in the layout used by
+     * {@link ProximityCalibrator}.
+     *
+     * @return false if there is no valid saved calibration
+     */
+    static boolean load(Context context, int[] parameters) {
+        byte[] data;
+        try {
+            data = getFile(context).readFully();
+        } catch (FileNotFoundException e) {
+            return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read saved calibration", e);
+            return false;
+        }
+
+        if (data.length != RECORD_SIZE) {
+            Log.w(TAG, "Ignoring saved calibration of " + data.length + " bytes");
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, CRC_OFFSET);
+        if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION
+                || buffer.getInt(CRC_OFFSET) != (int) crc.getValue()) {
+            Log.w(TAG, "Ignoring corrupt or unknown saved calibration");
+            return false;
+        }
+
+        buffer.position(16);
+        parameters[PARAM_HI] = buffer.getShort() & 0xffff;
+        parameters[PARAM_LO] = buffer.getShort() & 0xffff;
+        parameters[PARAM_CROSSTALK] = buffer.getShort() & 0xffff;
+        parameters[PARAM_OFFSET] = buffer.getShort() & 0xffff;
+        parameters[PARAM_RESULT] = RESULT_GOOD;
+        return true;
+    }
+}
@@ -16,6 +16,16 @@
 
 package org.cyanogenmod.sensors;
 
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MAX;
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MIDDLE;
+import static org.cyanogenmod.sensors.ProximityCalibrator.CROSSTALK_MIN;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_CROSSTALK;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_HI;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_LO;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_MAX;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_OFFSET;
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_RESULT;
+
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Color;
@@ -28,6 +38,7 @@ import android.os.Handler;
 import android.os.Message;
 import android.text.TextUtils;
 import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
 import android.view.Window;
 import android.view.WindowManager;
@@ -46,21 +57,12 @@ public class ProximityCalibrateActivity extends Activity {
 
     public static final String EXTRA_SECRET_CODE = "secret_code";
 
-    private static final int PARAM_HI = 0;
-    private static final int PARAM_LO = 1;
-    private static final int PARAM_CROSSTALK = 2;
-    private static final int PARAM_RESULT = 3;
-    private static final int PARAM_OFFSET = 4;
-    private static final int PARAM_MAX = 5;
-
-    private static final int CROSSTALK_MIN = 0;
-    private static final int CROSSTALK_MIDDLE = 600;
-    private static final int CROSSTALK_MAX = 1023;
+    // Samples shown in the chart
+    private static final int CHART_SAMPLES = 300;
 
-    private static final int MSG_CALIBRATE = 0;
-    private static final int MSG_USE_ORIGINAL = 1;
+    private static final int LABEL_LENGTH = 32;
 
-    private static final String BUNDLE_CALIBRATE_PARAMS = "params";
+    private static final int MSG_FINISHED = 0;
 
     private TextView mUserActionText;
     private TextView mResultText;
@@ -69,20 +71,24 @@ public class ProximityCalibrateActivity extends Activity {
     private TextView mYText;
     private TextView mOffsetText;
     private Button mStartButton;
+    private CalibrationChartView mChart;
 
     private static final ExecutorService mExecutorService = Executors.newSingleThreadExecutor();
     private UIHandler mHandler = new UIHandler();
     private CalibrateRunnable mCalibrateRunnable = new CalibrateRunnable();
+    private final ProximityCalibrator mCalibrator = new ProximityCalibrator();
     private Future mFuture;
 
-    /**
-     * Setup native bits
-     */
-    static {
-        System.load("libjni_proximityCalibrate.so");
-    }
+    // Written by the calibration thread, shown once per frame
+    private final SampleHistory mHistory = new SampleHistory(CHART_SAMPLES);
+    private final int[] mShownSample = new int[PARAM_MAX];
+    private long mShownSequence;
 
-    private static native boolean native_calibrateProximity(int[] parameters);
+    // TextView keeps a reference to the text, so every view gets its own
+    private final char[] mCrosstalkLabel = new char[LABEL_LENGTH];
+    private final char[] mXLabel = new char[LABEL_LENGTH];
+    private final char[] mYLabel = new char[LABEL_LENGTH];
+    private final char[] mOffsetLabel = new char[LABEL_LENGTH];
 
     /* Lifecycle bits */
 
@@ -111,6 +117,8 @@ public class ProximityCalibrateActivity extends Activity {
         mXText = (TextView) findViewById(R.id.result_x);
         mYText = (TextView) findViewById(R.id.result_y);
         mOffsetText = (TextView) findViewById(R.id.result_offset);
+        mChart = (CalibrationChartView) findViewById(R.id.chart);
+        mChart.setHistory(mHistory);
 
         mStartButton.setOnClickListener(new Button.OnClickListener() {
             @Override
@@ -135,14 +143,16 @@ public class ProximityCalibrateActivity extends Activity {
         stop(); // Always stop to make sure we start fresh
         mFuture = mExecutorService.submit(mCalibrateRunnable);
         mStartButton.setText("Stop");
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
     }
 
     private void stop() {
-        mCalibrateRunnable.mRun = false;
         if (mFuture != null) {
             mFuture.cancel(true);
             mFuture = null;
         }
+        mHandler.removeMessages(MSG_FINISHED);
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
         mStartButton.setText("Start");
     }
 
@@ -167,114 +177,201 @@ public class ProximityCalibrateActivity extends Activity {
         stop();
         SensorManager sm = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
         sm.unregisterListener(mSensorEventListener);
-        mHandler.removeMessages(MSG_CALIBRATE);
-        mHandler.removeMessages(MSG_USE_ORIGINAL);
+        mHandler.removeMessages(MSG_FINISHED);
     }
 
     private class CalibrateRunnable implements Runnable {
-        public boolean mRun = false;
+        private final ProximityCalibrator.Listener mListener =
+                new ProximityCalibrator.Listener() {
+            @Override
+            public void onSample(int[] parameters) {
+                mHistory.add(parameters);
+            }
+        };
 
         @Override
         public void run() {
-            mRun = true;
-            while (mRun) {
-                if (DEBUG) {
-                    Log.d(TAG, "Looping...");
-                }
-                int[] parameters = new int[PARAM_MAX];
-
-                parameters[PARAM_RESULT] = -1;
-                native_calibrateProximity(parameters);
-
-                Message msg = parameters[PARAM_RESULT] == -1 ?
-                        mHandler.obtainMessage(MSG_USE_ORIGINAL) :
-                        mHandler.obtainMessage(MSG_CALIBRATE);
-                Bundle data = new Bundle();
-                data.putIntArray(BUNDLE_CALIBRATE_PARAMS, parameters);
-                msg.setData(data);
-                mHandler.sendMessage(msg);
+            mHistory.clear();
+            final long startTime = System.currentTimeMillis();
+            try {
+                CalibrationEngine.Result result = mCalibrator.run(mListener);
                 try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ie) {
-                    Log.w(TAG, ie.getMessage(), ie);
+                    // Every run goes into the history, whether or not it is saved
+                    CalibrationHistory.get(ProximityCalibrateActivity.this).add(startTime, result);
+                    CalibrationStore.saveIfGood(ProximityCalibrateActivity.this, result);
+                } finally {
+                    mHandler.obtainMessage(MSG_FINISHED, result).sendToTarget();
                 }
+            } catch (InterruptedException e) {
+                // Stopped
             }
         }
     }
 
+    private final Choreographer.FrameCallback mFrameCallback =
+            new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            render();
+            if (mFuture != null) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
+    /**
+     * Shows the latest sample, if there is one that isn't shown yet.
+     */
+    private void render() {
+        final long sequence = mHistory.getSequence();
+        if (sequence == mShownSequence) {
+            return;
+        }
+        mShownSequence = sequence;
+        if (mHistory.readLatest(mShownSample)) {
+            if (mShownSample[PARAM_RESULT] == -1) {
+                showOriginal(mShownSample);
+            } else {
+                showCalibration(mShownSample);
+            }
+        }
+        mChart.invalidate();
+    }
+
+    /**
+     * Sets the text of view to prefix followed by value, without allocating.
+     */
+    private static void setLabel(TextView view, char[] buffer, String prefix, int value) {
+        int length = prefix.length();
+        prefix.getChars(0, length, buffer, 0);
+        if (value < 0) {
+            buffer[length++] = '-';
+        }
+        final int start = length;
+        do {
+            buffer[length++] = (char) ('0' + Math.abs(value % 10));
+            value /= 10;
+        } while (value != 0);
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            char c = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = c;
+        }
+        view.setText(buffer, 0, length);
+    }
+
     private class UIHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            int[] parameters;
             switch (msg.what) {
-                case MSG_USE_ORIGINAL:
-                    if (DEBUG) {
-                        Log.d(TAG, "Use Original Message Received");
-                    }
-                    parameters = msg.getData().getIntArray(BUNDLE_CALIBRATE_PARAMS);
-                    if (parameters[2] >= CROSSTALK_MIN &&
-                            parameters[2] <= CROSSTALK_MIDDLE) {
-                        mResultText.setText(R.string.calibration_good);
-                        mResultText.setTextColor(Color.GREEN);
-                    } else if (parameters[2] > CROSSTALK_MIDDLE &&
-                            parameters[2] <= CROSSTALK_MAX) {
-                        mResultText.setText(R.string.calibration_inferior);
-                        mResultText.setTextColor(Color.RED);
-                    } else {
-                        mResultText.setText(R.string.calibration_fail);
-                        mResultText.setTextColor(Color.RED);
-                    }
-                    mCrosstalkText.setText("Crosstalk = " + parameters[PARAM_CROSSTALK]);
-                    mXText.setText("High = " + parameters[PARAM_HI]);
-                    mYText.setText("Low = " + parameters[PARAM_LO]);
-                    break;
-                case MSG_CALIBRATE:
-                    if (DEBUG) {
-                        Log.d(TAG, "Calibrate Message Received");
-                    }
-                    parameters = msg.getData().getIntArray(BUNDLE_CALIBRATE_PARAMS);
-                    if (parameters[PARAM_RESULT] == 0) {
-                        //not calibration
-                        mResultText.setText(R.string.calibration_none);
-                        mResultText.setTextColor(Color.RED);
-                    } else if (parameters[PARAM_RESULT] == 1) {
-                        //well
-                        mResultText.setText(R.string.calibration_good);
-                        mResultText.setTextColor(Color.GREEN);
-                    } else if (parameters[PARAM_RESULT] == 2) {
-                        //fail
-                        mResultText.setText(R.string.calibration_fail);
-                        mResultText.setTextColor(Color.RED);
-                    } else if (parameters[PARAM_RESULT] == 3) {
-                        //too bright
-                        mResultText.setText(R.string.calibration_bright);
-                        mResultText.setTextColor(Color.RED);
-                    }
-                    mCrosstalkText.setText("Crosstalk = " + parameters[PARAM_CROSSTALK]);
-                    mXText.setText("High = " + parameters[PARAM_HI]);
-                    mYText.setText("Low = " + parameters[PARAM_LO]);
-                    mOffsetText.setText("Offset = " + parameters[PARAM_OFFSET]);
+                case MSG_FINISHED:
+                    mFuture = null;
+                    mStartButton.setText("Start");
+                    render();
+                    showResult((CalibrationEngine.Result) msg.obj);
                     break;
                 default:
                     break;
             }
             super.handleMessage(msg);
         }
+
+        private void showResult(CalibrationEngine.Result result) {
+            if (DEBUG) {
+                Log.d(TAG, "Calibration finished after " + result.attempts + " attempts");
+            }
+            if (!result.converged) {
+                mResultText.setText(R.string.calibration_unstable);
+                mResultText.setTextColor(Color.RED);
+            } else if (result.verdict == CalibrationEngine.VERDICT_GOOD) {
+                mResultText.setText(R.string.calibration_good);
+                mResultText.setTextColor(Color.GREEN);
+            } else if (result.verdict == CalibrationEngine.VERDICT_INFERIOR) {
+                mResultText.setText(R.string.calibration_inferior);
+                mResultText.setTextColor(Color.RED);
+            } else {
+                mResultText.setText(R.string.calibration_fail);
+                mResultText.setTextColor(Color.RED);
+            }
+            mCrosstalkText.setText(getString(R.string.calibration_crosstalk_summary,
+                    Math.round(result.mean[PARAM_CROSSTALK]),
+                    Math.round(result.stdDev[PARAM_CROSSTALK]), result.samples));
+            mXText.setText("High = " + Math.round(result.mean[PARAM_HI]));
+            mYText.setText("Low = " + Math.round(result.mean[PARAM_LO]));
+            mOffsetText.setText("Offset = " + Math.round(result.mean[PARAM_OFFSET]));
+        }
+    }
+
+    private void showOriginal(int[] parameters) {
+        if (DEBUG) {
+            Log.d(TAG, "Showing original values");
+        }
+        if (parameters[2] >= CROSSTALK_MIN &&
+                parameters[2] <= CROSSTALK_MIDDLE) {
+            mResultText.setText(R.string.calibration_good);
+            mResultText.setTextColor(Color.GREEN);
+        } else if (parameters[2] > CROSSTALK_MIDDLE &&
+                parameters[2] <= CROSSTALK_MAX) {
+            mResultText.setText(R.string.calibration_inferior);
+            mResultText.setTextColor(Color.RED);
+        } else {
+            mResultText.setText(R.string.calibration_fail);
+            mResultText.setTextColor(Color.RED);
+        }
+        setLabel(mCrosstalkText, mCrosstalkLabel, "Crosstalk = ",
+                parameters[PARAM_CROSSTALK]);
+        setLabel(mXText, mXLabel, "High = ", parameters[PARAM_HI]);
+        setLabel(mYText, mYLabel, "Low = ", parameters[PARAM_LO]);
+    }
+
+    private void showCalibration(int[] parameters) {
+        if (DEBUG) {
+            Log.d(TAG, "Showing calibration values");
+        }
+        if (parameters[PARAM_RESULT] == 0) {
+            //not calibration
+            mResultText.setText(R.string.calibration_none);
+            mResultText.setTextColor(Color.RED);
+        } else if (parameters[PARAM_RESULT] == 1) {
+            //well
+            mResultText.setText(R.string.calibration_good);
+            mResultText.setTextColor(Color.GREEN);
+        } else if (parameters[PARAM_RESULT] == 2) {
+            //fail
+            mResultText.setText(R.string.calibration_fail);
+            mResultText.setTextColor(Color.RED);
+        } else if (parameters[PARAM_RESULT] == 3) {
+            //too bright
+            mResultText.setText(R.string.calibration_bright);
+            mResultText.setTextColor(Color.RED);
+        }
+        setLabel(mCrosstalkText, mCrosstalkLabel, "Crosstalk = ",
+                parameters[PARAM_CROSSTALK]);
+        setLabel(mXText, mXLabel, "High = ", parameters[PARAM_HI]);
+        setLabel(mYText, mYLabel, "Low = ", parameters[PARAM_LO]);
+        setLabel(mOffsetText, mOffsetLabel, "Offset = ", parameters[PARAM_OFFSET]);
     }
 
     private SensorEventListener mSensorEventListener = new SensorEventListener() {
+        private boolean mFar = true;
+
         @Override
         public void onSensorChanged(SensorEvent event) {
             float[] data = event.values;
             if (DEBUG) {
                 Log.d(TAG, "Sensor Value: " + data[0]);
             }
-            if (data[0] > 0) {
+            final boolean far = data[0] > 0;
+            if (far) {
                 mUserActionText.setText("come near");
             } else {
                 mUserActionText.setText("move away");
             }
             mUserActionText.setTextColor(Color.YELLOW);
+            if (far != mFar) {
+                mFar = far;
+                mCalibrator.trigger();
+            }
         }
 
         @Override
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Runs calibration passes on the proximity sensor until a
+ * {@link CalibrationEngine} is satisfied with the readings.
+ *
+ * Besides its own adaptive interval, a sample is taken right away whenever
+ * {@link #trigger()} is called, e.g. on a near/far change reported by the
+ * proximity sensor.
+ */
+class ProximityCalibrator {
+
+    private static final String TAG = "ProximityCalibrate";
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    static final int PARAM_HI = 0;
+    static final int PARAM_LO = 1;
+    static final int PARAM_CROSSTALK = 2;
+    static final int PARAM_RESULT = 3;
+    static final int PARAM_OFFSET = 4;
+    static final int PARAM_MAX = 5;
+
+    static final int CROSSTALK_MIN = 0;
+    static final int CROSSTALK_MIDDLE = 600;
+    static final int CROSSTALK_MAX = 1023;
+
+    // Samples that have to agree, and attempts before giving up
+    private static final int CALIBRATION_WINDOW = 20;
+    private static final int CALIBRATION_MAX_ATTEMPTS = 300;
+
+    // Sampling interval bounds in ms. Sampling is fast until the engine has
+    // a full window, as every sample counts towards the first verdict. Once
+    // a full window failed the confidence check, it stays fast while the
+    // crosstalk is moving by more than SAMPLE_STABLE_DELTA and backs off
+    // when it isn't. The slowest rate is the old fixed one, so a run that
+    // doesn't converge still gives up after CALIBRATION_MAX_ATTEMPTS * 100ms
+    // at most.
+    private static final long SAMPLE_INTERVAL_MIN = 25;
+    private static final long SAMPLE_INTERVAL_MAX = 100;
+    private static final int SAMPLE_STABLE_DELTA = 8;
+
+    interface Listener {
+        /**
+         * Called on the calibrating thread for every attempt. A failed
+         * attempt has all values set to 0 and PARAM_RESULT set to -1.
+         */
+        void onSample(int[] parameters);
+    }
+
+    /**
+     * Setup native bits
+     */
+    static {
+        System.load("libjni_proximityCalibrate.so");
+    }
+
+    private static native int native_open();
+    private static native int native_sample(int fd, int[] parameters, int count);
+    private static native boolean native_setOffset(int fd, int[] parameters);
+    private static native void native_close(int fd);
+
+    private final CalibrationEngine mEngine =
+            new CalibrationEngine(CALIBRATION_WINDOW, CALIBRATION_MAX_ATTEMPTS);
+    private final int[] mParameters = new int[PARAM_MAX];
+    private final Object mLock = new Object();
+    private boolean mTriggered;
+
+    /**
+     * Hands a previously calibrated sample back to the driver.
+     *
+     * @return false if the device couldn't be opened or refused the values
+     */
+    static boolean applyOffset(int[] parameters) {
+        final int fd = native_open();
+        if (fd < 0) {
+            return false;
+        }
+        try {
+            return native_setOffset(fd, parameters);
+        } finally {
+            native_close(fd);
+        }
+    }
+
+    void trigger() {
+        synchronized (mLock) {
+            mTriggered = true;
+            mLock.notify();
+        }
+    }
+
+    private void await(long timeout) throws InterruptedException {
+        synchronized (mLock) {
+            if (!mTriggered) {
+                mLock.wait(timeout);
+            }
+            mTriggered = false;
+        }
+    }
+
+    /**
+     * Calibrates until the readings settle or the attempt limit is reached.
+     * Only one run may be in progress at a time.
+     *
+     * @throws InterruptedException if the calling thread was interrupted
+     */
+    CalibrationEngine.Result run(Listener listener) throws InterruptedException {
+        final int[] parameters = mParameters;
+        long interval = SAMPLE_INTERVAL_MIN;
+        int lastCrosstalk = -1;
+        int fd = -1;
+
+        mEngine.reset();
+        synchronized (mLock) {
+            mTriggered = false;
+        }
+        try {
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                if (DEBUG) {
+                    Log.d(TAG, "Looping, interval " + interval + "ms");
+                }
+                if (fd < 0) {
+                    fd = native_open();
+                }
+                if (fd < 0 || native_sample(fd, parameters, 1) == 0) {
+                    Arrays.fill(parameters, 0);
+                    parameters[PARAM_RESULT] = -1;
+                }
+                if (listener != null) {
+                    listener.onSample(parameters);
+                }
+                if (mEngine.addSample(parameters)) {
+                    return mEngine.getResult();
+                }
+
+                final int crosstalk = parameters[PARAM_CROSSTALK];
+                if (mEngine.getSampleCount() < CALIBRATION_WINDOW || lastCrosstalk < 0
+                        || Math.abs(crosstalk - lastCrosstalk) > SAMPLE_STABLE_DELTA) {
+                    interval = SAMPLE_INTERVAL_MIN;
+                } else {
+                    // A full window of settled readings that still straddles
+                    // a band boundary, more samples rarely change that soon
+                    interval = Math.min(interval * 2, SAMPLE_INTERVAL_MAX);
+                }
+                lastCrosstalk = crosstalk;
+
+                await(interval);
+            }
+        } finally {
+            if (fd >= 0) {
+                native_close(fd);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.cyanogenmod.sensors;
+
+import static org.cyanogenmod.sensors.ProximityCalibrator.PARAM_MAX;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * The most recent calibration samples, written by one thread and read by
+ * others without locking.
+ *
+ * The writer bumps a sequence number before and after storing a sample, so
+ * the sequence is odd while a write is in progress. Readers of the latest
+ * sample retry until they see the same even sequence before and after
+ * copying it out. Older samples are read without that check; they could
+ * only change if the writer wrapped around the whole buffer during a read.
+ */
+class SampleHistory {
+
+    private final int mCapacity;
+    private final AtomicIntegerArray mValues;
+    private volatile long mSequence;
+
+    SampleHistory(int capacity) {
+        mCapacity = capacity;
+        mValues = new AtomicIntegerArray(capacity * PARAM_MAX);
+    }
+
+    /**
+     * Stores a sample. Must only be called from one thread at a time.
+     */
+    void add(int[] parameters) {
+        final long sequence = mSequence;
+        mSequence = sequence + 1;
+        final int base = (int) ((sequence / 2) % mCapacity) * PARAM_MAX;
+        for (int i = 0; i < PARAM_MAX; i++) {
+            mValues.set(base + i, parameters[i]);
+        }
+        mSequence = sequence + 2;
+    }
+
+    /**
+     * Removes all samples. Must only be called from the writing thread.
+     */
+    void clear() {
+        mSequence = 0;
+    }
+
+    /**
+     * Changes whenever a sample is added or the history is cleared.
+     */
+    long getSequence() {
+        return mSequence;
+    }
+
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    int size() {
+        return (int) Math.min(mSequence / 2, mCapacity);
+    }
+
+    /**
+     * Copies the latest sample into out.
+     *
+     * @return false if there is no sample yet
+     */
+    boolean readLatest(int[] out) {
+        while (true) {
+            final long sequence = mSequence;
+            if ((sequence & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            if (sequence == 0) {
+                return false;
+            }
+            final int base = (int) ((sequence / 2 - 1) % mCapacity) * PARAM_MAX;
+            for (int i = 0; i < PARAM_MAX; i++) {
+                out[i] = mValues.get(base + i);
+            }
+            if (mSequence == sequence) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a parameter of the sample added age samples before the latest
+     * one, which must be less than {@link #size()}.
+     */
+    int get(int age, int param) {
+        final long count = mSequence / 2;
+        final int slot = (int) ((count - 1 - age) % mCapacity);
+        return mValues.get(slot * PARAM_MAX + param);
+    }
+}
@@ -30,9 +30,16 @@ public class KeyDisabler {
     private static final String CONTROL_PATH =
             "/sys/devices/soc.0/78b9000.i2c/i2c-5/5-005d/keypad_enable";
 
+    // Only a usable node is remembered, one that isn't may just not be
+    // there yet, e.g. before the touch driver is bound
+    private static volatile boolean sSupported;
+
     public static boolean isSupported() {
-        return FileUtils.isFileReadable(CONTROL_PATH) &&
-                FileUtils.isFileWritable(CONTROL_PATH);
+        if (!sSupported) {
+            sSupported = FileUtils.isFileReadable(CONTROL_PATH) &&
+                    FileUtils.isFileWritable(CONTROL_PATH);
+        }
+        return sSupported;
     }
 
     public static boolean isActive() {
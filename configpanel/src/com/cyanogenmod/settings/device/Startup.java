@@ -21,15 +21,24 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.os.SystemClock;
 import android.util.Log;
 
-import org.cyanogenmod.internal.util.FileUtils;
+import com.cyanogenmod.settings.device.sysfs.NodeCapabilities;
 import com.cyanogenmod.settings.device.utils.Constants;
+import com.cyanogenmod.settings.device.utils.GesturePreferences;
+import com.cyanogenmod.settings.device.utils.GestureWriter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Startup extends BroadcastReceiver {
 
     private static final String TAG = Startup.class.getSimpleName();
 
+    // Single thread, so initialization requests are handled in order
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
     @Override
     public void onReceive(final Context context, final Intent intent) {
         final String action = intent.getAction();
@@ -37,23 +46,61 @@ public class Startup extends BroadcastReceiver {
             return;
         }
 
+        // Sysfs and package manager calls can be slow, keep them off the main thread
+        final PendingResult result = goAsync();
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    initialize(context);
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+
+    private void initialize(Context context) {
+        final long start = SystemClock.elapsedRealtime();
+
         // Disable touchscreen gesture settings if needed
-        if (!hasTouchscreenGestures()) {
+        final boolean supported = hasTouchscreenGestures();
+        final long probed = SystemClock.elapsedRealtime();
+        if (!supported) {
             disableComponent(context, TouchscreenGestureSettings.class.getName());
+            logTimings(start, probed, SystemClock.elapsedRealtime(), -1);
             return;
         }
 
         enableComponent(context, TouchscreenGestureSettings.class.getName());
+        final long componentsSet = SystemClock.elapsedRealtime();
         // Restore nodes to saved preference values
-        for (String pref : Constants.sGesturePrefKeys) {
-            boolean value = Constants.isPreferenceEnabled(context, pref);
-            Constants.setGestureEnabled(value, pref);
+        GesturePreferences preferences = GesturePreferences.get(context);
+        GestureWriter writer = new GestureWriter();
+        for (int id = 0; id < Constants.sGesturePrefKeys.length; id++) {
+            writer.setEnabled(Constants.sGesturePrefKeys[id], preferences.isEnabled(id));
+        }
+        if (!writer.commit()) {
+            Log.e(TAG, "Failed to restore touchscreen gestures");
+        }
+        Log.d(TAG, "Gesture node writes avoided: " + GestureWriter.getWritesAvoided());
+        logTimings(start, probed, componentsSet, SystemClock.elapsedRealtime());
+    }
+
+    private void logTimings(long start, long probed, long componentsSet, long restored) {
+        StringBuilder builder = new StringBuilder("Hardware init took ");
+        builder.append(Math.max(componentsSet, restored) - start).append("ms (probe ");
+        builder.append(probed - start).append("ms, components ");
+        builder.append(componentsSet - probed).append("ms");
+        if (restored >= 0) {
+            builder.append(", restore ").append(restored - componentsSet).append("ms");
         }
+        builder.append(')');
+        Log.i(TAG, builder.toString());
     }
 
     private boolean hasTouchscreenGestures() {
-        return FileUtils.isFileReadable(Constants.TOUCHSCREEN_GESTURE_CTRL_NODE) &&
-                FileUtils.isFileWritable(Constants.TOUCHSCREEN_GESTURE_CTRL_NODE);
+        return NodeCapabilities.isSupported(NodeCapabilities.TOUCHSCREEN_GESTURES);
     }
 
     private void disableComponent(Context context, String component) {
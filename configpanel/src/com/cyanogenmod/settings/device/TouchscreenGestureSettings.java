@@ -25,7 +25,13 @@ import android.preference.SwitchPreference;
 import android.view.MenuItem;
 
 import cyanogenmod.providers.CMSettings;
+import com.cyanogenmod.settings.device.sysfs.SysfsNode;
 import com.cyanogenmod.settings.device.utils.Constants;
+import com.cyanogenmod.settings.device.utils.GestureWriteQueue;
+import com.cyanogenmod.settings.device.utils.GestureWriter;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 public class TouchscreenGestureSettings extends PreferenceActivity
         implements OnPreferenceChangeListener {
@@ -64,20 +70,58 @@ public class TouchscreenGestureSettings extends PreferenceActivity
             return true;
         }
 
-        Constants.setGestureEnabled((Boolean) newValue, preference.getKey());
+        // Written in the background, the switch is set back if that fails
+        GestureWriteQueue.setEnabled(preference.getKey(), (Boolean) newValue,
+                mGestureStateCallback);
         return true;
     }
 
     @Override
     public void addPreferencesFromResource(int preferencesResId) {
         super.addPreferencesFromResource(preferencesResId);
-        // Initialize node preferences
+        // Initialize node preferences, they are enabled once their state
+        // has been read from the gesture node
         for (String pref : Constants.sGesturePrefKeys) {
             SwitchPreference b = (SwitchPreference) findPreference(pref);
             if (b == null) continue;
             b.setOnPreferenceChangeListener(this);
-            b.setChecked(Constants.getGestureEnabled(pref));
+            b.setEnabled(false);
+        }
+        GestureWriteQueue.load(mGestureStateCallback);
+    }
+
+    private final GestureWriteQueue.Callback mGestureStateCallback =
+            new GestureWriteQueue.Callback() {
+        @Override
+        public void onGestureState(final String prefKey, final boolean enabled) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (isDestroyed()) {
+                        return;
+                    }
+                    SwitchPreference b = (SwitchPreference) findPreference(prefKey);
+                    if (b == null) return;
+                    b.setChecked(enabled);
+                    b.setEnabled(true);
+                }
+            });
         }
+    };
+
+    /**
+     * Adds the sysfs node metrics of this process, see
+     * dumpsys activity com.cyanogenmod.settings.device
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.println("Sysfs nodes:");
+        SysfsNode.dumpAll(writer, prefix + "  ");
+        writer.print(prefix);
+        writer.print("Gesture node writes avoided: ");
+        writer.println(GestureWriter.getWritesAvoided());
     }
 
     @Override
@@ -16,110 +16,105 @@
 
 package com.cyanogenmod.settings.device.utils;
 
-import android.content.Context;
-import android.content.SharedPreferences;
-import android.preference.PreferenceManager;
+import android.util.Log;
 
-import org.cyanogenmod.internal.util.FileUtils;
-
-import java.util.HashMap;
-import java.util.Map;
+import com.cyanogenmod.settings.device.gestures.GestureRegistry;
+import com.cyanogenmod.settings.device.sysfs.NodeCapabilities;
+import com.cyanogenmod.settings.device.sysfs.SysfsNode;
 
 public class Constants {
 
+    private static final String TAG = Constants.class.getSimpleName();
+
     // Preference keys
-    private static final String TOUCHSCREEN_CAMERA_GESTURE_KEY = "touchscreen_gesture_camera";
-    private static final String TOUCHSCREEN_MUSIC_GESTURE_KEY = "touchscreen_gesture_music";
+    private static final String TOUCHSCREEN_CAMERA_GESTURE_KEY =
+            GestureRegistry.TOUCHSCREEN_CAMERA_GESTURE_KEY;
+    private static final String TOUCHSCREEN_MUSIC_GESTURE_KEY =
+            GestureRegistry.TOUCHSCREEN_MUSIC_GESTURE_KEY;
     private static final String TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY =
-            "touchscreen_gesture_flashlight";
+            GestureRegistry.TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY;
 
     // Gesture node
     public static final String TOUCHSCREEN_GESTURE_CTRL_NODE =
-            "/sys/devices/virtual/touchscreen/touchscreen_dev/gesture_ctrl";
+            NodeCapabilities.GESTURE_CTRL_NODE;
+    public static final SysfsNode sGestureCtrl = SysfsNode.get(TOUCHSCREEN_GESTURE_CTRL_NODE);
 
     // Gesture node default values
     private static final boolean TOUCHSCREEN_CAMERA_DEFAULT = true;
     private static final boolean TOUCHSCREEN_MUSIC_DEFAULT = true;
     private static final boolean TOUCHSCREEN_FLASHLIGHT_DEFAULT = true;
 
-    // Holds <preference_key> -> <default_values> mapping
-    private static final Map<String, Object> sNodeDefaultMap = new HashMap<>();
+    // Last known gesture_ctrl bitmask, read again when GESTURE_STATE_UNKNOWN
+    static final long GESTURE_STATE_UNKNOWN = -1;
+    private static volatile long sGestureState = GESTURE_STATE_UNKNOWN;
 
+    // Index into these arrays is the preference id used by GesturePreferences
     public static final String[] sGesturePrefKeys = {
         TOUCHSCREEN_CAMERA_GESTURE_KEY,
         TOUCHSCREEN_MUSIC_GESTURE_KEY,
         TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY
     };
 
-    static {
-        sNodeDefaultMap.put(TOUCHSCREEN_CAMERA_GESTURE_KEY, TOUCHSCREEN_CAMERA_DEFAULT);
-        sNodeDefaultMap.put(TOUCHSCREEN_MUSIC_GESTURE_KEY, TOUCHSCREEN_MUSIC_DEFAULT);
-        sNodeDefaultMap.put(TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY, TOUCHSCREEN_FLASHLIGHT_DEFAULT);
-    }
-
-    public static void setGestureEnabled(boolean state, String gesture) {
-        String[] cmd = null;
-
-        switch (gesture) {
-            case TOUCHSCREEN_CAMERA_GESTURE_KEY:
-                cmd = new String[] { "c=" };
-                break;
-            case TOUCHSCREEN_MUSIC_GESTURE_KEY:
-                cmd = new String[] { "down=", "left=", "right=" };
-                break;
-            case TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY:
-                cmd = new String[] { "o=" };
-                break;
-            default:
-                return;
-        }
+    static final boolean[] sGesturePrefDefaults = {
+        TOUCHSCREEN_CAMERA_DEFAULT,
+        TOUCHSCREEN_MUSIC_DEFAULT,
+        TOUCHSCREEN_FLASHLIGHT_DEFAULT
+    };
 
-        String enabled = state ? "true" : "false";
-        StringBuilder builder = new StringBuilder();
-        for (String i : cmd) {
-            if (builder.length() > 0) {
-                builder.append(',');
-            }
-            builder.append(i);
-            builder.append(enabled);
+    /**
+     * Updates the cached bitmask after {@link GestureWriter} wrote to the node.
+     */
+    static synchronized void onGestureStateWritten(boolean written, long enabled,
+            long disabled) {
+        long current = sGestureState;
+        if (!written) {
+            sGestureState = GESTURE_STATE_UNKNOWN;
+        } else if (current != GESTURE_STATE_UNKNOWN) {
+            sGestureState = (current | enabled) & ~disabled;
         }
-
-        FileUtils.writeLine(TOUCHSCREEN_GESTURE_CTRL_NODE, builder.toString());
     }
 
     public static boolean getGestureEnabled(String gesture) {
-        String stateStr = FileUtils.readOneLine(TOUCHSCREEN_GESTURE_CTRL_NODE);
-        if (stateStr == null) {
+        long state = getGestureState();
+        if (state == GESTURE_STATE_UNKNOWN) {
             return false;
         }
 
-        long state = Long.decode(stateStr);
-        long hex = 0x00;
-
-        switch (gesture) {
-            case TOUCHSCREEN_CAMERA_GESTURE_KEY:
-                hex = 0x80;
-                break;
-            case TOUCHSCREEN_MUSIC_GESTURE_KEY:
-                hex = 0x0E;
-                break;
-            case TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY:
-                hex = 0x20;
-                break;
-            default:
-                return false;
+        long hex = GestureRegistry.getControlMask(gesture);
+        if (hex == 0) {
+            return false;
         }
 
         return (state & hex) == hex;
     }
 
-    public static boolean isPreferenceEnabled(Context context, String key) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        return preferences.getBoolean(key, (Boolean) sNodeDefaultMap.get(key));
+    /**
+     * Returns the gesture_ctrl bitmask, reading the node only if it is not
+     * cached yet. Returns GESTURE_STATE_UNKNOWN if the node can't be read.
+     */
+    static long getGestureState() {
+        long state = sGestureState;
+        if (state == GESTURE_STATE_UNKNOWN) {
+            state = refreshGestureState();
+        }
+        return state;
     }
 
-    public static String getPreferenceString(Context context, String key) {
-        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
-        return preferences.getString(key, (String) sNodeDefaultMap.get(key));
+    /**
+     * Reads gesture_ctrl again, for when it may have been changed by someone
+     * other than {@link GestureWriter}.
+     */
+    public static synchronized long refreshGestureState() {
+        long state = GESTURE_STATE_UNKNOWN;
+        String stateStr = sGestureCtrl.readLine();
+        if (stateStr != null) {
+            try {
+                state = Long.decode(stateStr);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Unexpected gesture state: " + stateStr);
+            }
+        }
+        sGestureState = state;
+        return state;
     }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/*
+ * In-memory copy of the gesture preferences
+ *
+ * The preferences are read once and kept as one bit per preference id (the
+ * index into Constants.sGesturePrefKeys). They are only written by the
+ * switches in the settings UI, which persist them with apply(), and those
+ * changes are picked up through the change listener.
+ */
+public class GesturePreferences implements OnSharedPreferenceChangeListener {
+
+    private static final String TAG = GesturePreferences.class.getSimpleName();
+
+    private static GesturePreferences sInstance;
+
+    private final SharedPreferences mPreferences;
+    private volatile long mEnabled;
+
+    public static synchronized GesturePreferences get(Context context) {
+        if (sInstance == null) {
+            sInstance = new GesturePreferences(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private GesturePreferences(Context context) {
+        mPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        // Registered before loading so no change can slip in between
+        mPreferences.registerOnSharedPreferenceChangeListener(this);
+        reload();
+    }
+
+    private synchronized void reload() {
+        long enabled = 0;
+        for (int id = 0; id < Constants.sGesturePrefKeys.length; id++) {
+            if (readBoolean(id)) {
+                enabled |= 1L << id;
+            }
+        }
+        mEnabled = enabled;
+    }
+
+    private boolean readBoolean(int id) {
+        String key = Constants.sGesturePrefKeys[id];
+        boolean def = Constants.sGesturePrefDefaults[id];
+        try {
+            return mPreferences.getBoolean(key, def);
+        } catch (ClassCastException e) {
+            Log.e(TAG, "Preference " + key + " is not a boolean, using default");
+            return def;
+        }
+    }
+
+    public boolean isEnabled(int id) {
+        return (mEnabled & (1L << id)) != 0;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences preferences, String key) {
+        int id = getId(key);
+        if (id < 0) {
+            return;
+        }
+        boolean enabled = readBoolean(id);
+        synchronized (this) {
+            mEnabled = enabled ? mEnabled | (1L << id) : mEnabled & ~(1L << id);
+        }
+    }
+
+    private static int getId(String key) {
+        for (int id = 0; id < Constants.sGesturePrefKeys.length; id++) {
+            if (Constants.sGesturePrefKeys[id].equals(key)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+}
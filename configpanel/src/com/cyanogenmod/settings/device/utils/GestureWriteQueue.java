@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Write-behind queue for gesture changes made from the UI
+ *
+ * Reads and writes of the gesture node all happen on one background thread,
+ * in the order they were requested. Changes are held back for a moment and
+ * collected in a single GestureWriter, so flipping a switch back and forth
+ * ends up as at most one write with the final values.
+ */
+public class GestureWriteQueue {
+
+    // How long changes are collected before they are written
+    private static final long WRITE_DELAY_MS = 200;
+
+    public interface Callback {
+        /**
+         * Called on the queue's thread with the state of a gesture as read
+         * from the node.
+         */
+        void onGestureState(String prefKey, boolean enabled);
+    }
+
+    private static final ScheduledExecutorService sExecutor =
+            Executors.newSingleThreadScheduledExecutor();
+
+    // Changes not written yet, null if there are none. Guarded by sLock.
+    private static final Object sLock = new Object();
+    private static GestureWriter sPending;
+    private static final Map<String, Callback> sPendingCallbacks =
+            new HashMap<String, Callback>();
+
+    private static final Runnable sFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Reads the state of every gesture, after any pending changes are
+     * written, and reports it to callback.
+     */
+    public static void load(final Callback callback) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+                Constants.refreshGestureState();
+                for (String prefKey : Constants.sGesturePrefKeys) {
+                    callback.onGestureState(prefKey, Constants.getGestureEnabled(prefKey));
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a change. If the write fails, onFailure is told the state the
+     * gesture is actually in.
+     */
+    public static void setEnabled(String prefKey, boolean enabled, Callback onFailure) {
+        synchronized (sLock) {
+            if (sPending == null) {
+                sPending = new GestureWriter();
+                sExecutor.schedule(sFlushRunnable, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+            sPending.setEnabled(prefKey, enabled);
+            sPendingCallbacks.put(prefKey, onFailure);
+        }
+    }
+
+    private static void flush() {
+        GestureWriter writer;
+        Map<String, Callback> callbacks;
+        synchronized (sLock) {
+            writer = sPending;
+            if (writer == null) {
+                return;
+            }
+            callbacks = new HashMap<String, Callback>(sPendingCallbacks);
+            sPending = null;
+            sPendingCallbacks.clear();
+        }
+
+        if (writer.commit()) {
+            return;
+        }
+        for (Map.Entry<String, Callback> entry : callbacks.entrySet()) {
+            if (entry.getValue() != null) {
+                // Reads the node again, the cached state was dropped
+                entry.getValue().onGestureState(entry.getKey(),
+                        Constants.getGestureEnabled(entry.getKey()));
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.utils;
+
+import com.cyanogenmod.settings.device.gestures.GestureRegistry;
+import com.cyanogenmod.settings.device.gestures.GestureRegistry.Gesture;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Batches gesture changes into one write to the gesture node
+ *
+ * Every write to gesture_ctrl is an i2c transaction with the touchscreen
+ * controller, so changes are collected and sent as a single comma separated
+ * command. Gestures that already are in the requested state are left out,
+ * and nothing is written at all if none of them changes.
+ */
+public class GestureWriter {
+
+    // Writes saved compared to writing each preference on its own
+    private static final AtomicLong sWritesAvoided = new AtomicLong();
+
+    private long mEnable;
+    private long mDisable;
+    private int mRequested;
+
+    public GestureWriter setEnabled(String prefKey, boolean enabled) {
+        long mask = GestureRegistry.getControlMask(prefKey);
+        if (mask == 0) {
+            return this;
+        }
+        if (enabled) {
+            mEnable |= mask;
+            mDisable &= ~mask;
+        } else {
+            mDisable |= mask;
+            mEnable &= ~mask;
+        }
+        mRequested++;
+        return this;
+    }
+
+    /**
+     * Writes the collected changes.
+     *
+     * @return false if writing to the gesture node failed
+     */
+    public boolean commit() {
+        synchronized (Constants.class) {
+            long enable = mEnable;
+            long disable = mDisable;
+            long current = Constants.getGestureState();
+            if (current != Constants.GESTURE_STATE_UNKNOWN) {
+                enable &= ~current;
+                disable &= current;
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < GestureRegistry.getGestureCount(); i++) {
+                Gesture g = GestureRegistry.getGestureAt(i);
+                boolean on = (enable & g.controlBit) != 0;
+                if (!on && (disable & g.controlBit) == 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append(',');
+                }
+                builder.append(g.node);
+                builder.append('=');
+                builder.append(on ? "true" : "false");
+            }
+
+            int writes = builder.length() > 0 ? 1 : 0;
+            sWritesAvoided.addAndGet(Math.max(0, mRequested - writes));
+            mEnable = mDisable = 0;
+            mRequested = 0;
+            if (writes == 0) {
+                return true;
+            }
+
+            boolean written = Constants.sGestureCtrl.writeLine(builder.toString());
+            Constants.onGestureStateWritten(written, enable, disable);
+            return written;
+        }
+    }
+
+    public static long getWritesAvoided() {
+        return sWritesAvoided.get();
+    }
+}
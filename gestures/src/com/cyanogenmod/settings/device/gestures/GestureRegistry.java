@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.gestures;
+
+/*
+ * Touchscreen gestures reported by the goodix driver
+ *
+ * Shared by the key handler and the config panel so a gesture only has to be
+ * described once: the scancode it is reported with (see goodix.kl), the name
+ * and bit it has in gesture_ctrl, the action it triggers and the preference
+ * that enables it.
+ */
+public final class GestureRegistry {
+
+    // Actions
+    public static final int ACTION_PLAY_PAUSE = 0;
+    public static final int ACTION_PREVIOUS_TRACK = 1;
+    public static final int ACTION_NEXT_TRACK = 2;
+    public static final int ACTION_CAMERA = 3;
+    public static final int ACTION_FLASHLIGHT = 4;
+    public static final int ACTION_COUNT = 5;
+
+    // Preference keys
+    public static final String TOUCHSCREEN_CAMERA_GESTURE_KEY = "touchscreen_gesture_camera";
+    public static final String TOUCHSCREEN_MUSIC_GESTURE_KEY = "touchscreen_gesture_music";
+    public static final String TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY =
+            "touchscreen_gesture_flashlight";
+
+    public static final class Gesture {
+        public final int scancode;
+        // Name used when writing to gesture_ctrl, e.g. "c=true"
+        public final String node;
+        // Bit reported for this gesture when reading gesture_ctrl
+        public final long controlBit;
+        public final int action;
+        public final String prefKey;
+
+        private Gesture(int scancode, String node, long controlBit, int action,
+                String prefKey) {
+            this.scancode = scancode;
+            this.node = node;
+            this.controlBit = controlBit;
+            this.action = action;
+            this.prefKey = prefKey;
+        }
+    }
+
+    private static final Gesture[] sGestures = {
+        new Gesture(249, "down", 0x02, ACTION_PLAY_PAUSE, TOUCHSCREEN_MUSIC_GESTURE_KEY),
+        new Gesture(250, "left", 0x04, ACTION_PREVIOUS_TRACK, TOUCHSCREEN_MUSIC_GESTURE_KEY),
+        new Gesture(251, "right", 0x08, ACTION_NEXT_TRACK, TOUCHSCREEN_MUSIC_GESTURE_KEY),
+        new Gesture(252, "c", 0x80, ACTION_CAMERA, TOUCHSCREEN_CAMERA_GESTURE_KEY),
+        new Gesture(253, "o", 0x20, ACTION_FLASHLIGHT, TOUCHSCREEN_FLASHLIGHT_GESTURE_KEY),
+    };
+
+    public static final int FIRST_SCANCODE;
+    public static final int SCANCODE_COUNT;
+
+    // Indexed by scancode - FIRST_SCANCODE, null for holes in the range
+    private static final Gesture[] sGesturesByScancode;
+
+    static {
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (Gesture gesture : sGestures) {
+            first = Math.min(first, gesture.scancode);
+            last = Math.max(last, gesture.scancode);
+        }
+        FIRST_SCANCODE = first;
+        SCANCODE_COUNT = last - first + 1;
+
+        sGesturesByScancode = new Gesture[SCANCODE_COUNT];
+        for (Gesture gesture : sGestures) {
+            sGesturesByScancode[gesture.scancode - FIRST_SCANCODE] = gesture;
+        }
+    }
+
+    private GestureRegistry() {
+    }
+
+    /**
+     * Returns the gesture reported with the given scancode, or null if the
+     * scancode is not a touchscreen gesture.
+     */
+    public static Gesture get(int scancode) {
+        int index = scancode - FIRST_SCANCODE;
+        if (index < 0 || index >= SCANCODE_COUNT) {
+            return null;
+        }
+        return sGesturesByScancode[index];
+    }
+
+    public static int getGestureCount() {
+        return sGestures.length;
+    }
+
+    public static Gesture getGestureAt(int index) {
+        return sGestures[index];
+    }
+
+    /**
+     * Returns the gesture_ctrl bits of all gestures enabled by the given
+     * preference, or 0 if the key is unknown.
+     */
+    public static long getControlMask(String prefKey) {
+        long mask = 0;
+        for (Gesture gesture : sGestures) {
+            if (gesture.prefKey.equals(prefKey)) {
+                mask |= gesture.controlBit;
+            }
+        }
+        return mask;
+    }
+}
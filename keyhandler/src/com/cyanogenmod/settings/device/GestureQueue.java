@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+/**
+ * Bounded FIFO of gestures waiting to be dispatched.
+ *
+ * A gesture that repeats the most recently queued one within its debounce
+ * window is merged into that entry instead of taking a new slot, and the
+ * entry's count records how many times it was performed. Entries are only
+ * ever merged into the tail, so dispatch order matches arrival order.
+ */
+class GestureQueue {
+
+    static final class Entry {
+        int scancode;
+        int count;
+        // elapsedRealtimeNanos() when the first gesture of the entry arrived
+        long enqueueTime;
+    }
+
+    private final int[] mScancodes;
+    private final int[] mCounts;
+    private final long[] mEnqueueTimes;
+    // Event time (uptimeMillis) of the last gesture merged into each entry
+    private final long[] mLastEventTimes;
+    private int mHead;
+    private int mSize;
+
+    GestureQueue(int capacity) {
+        mScancodes = new int[capacity];
+        mCounts = new int[capacity];
+        mEnqueueTimes = new long[capacity];
+        mLastEventTimes = new long[capacity];
+    }
+
+    /**
+     * Queues a gesture, merging it into the tail entry when it repeats that
+     * gesture within debounceWindow milliseconds.
+     *
+     * @return false if the queue is full and the gesture was not queued
+     */
+    synchronized boolean offer(int scancode, long eventTime, long now, long debounceWindow) {
+        final int capacity = mScancodes.length;
+        if (mSize > 0) {
+            int tail = (mHead + mSize - 1) % capacity;
+            if (mScancodes[tail] == scancode &&
+                    eventTime - mLastEventTimes[tail] <= debounceWindow) {
+                mCounts[tail]++;
+                mLastEventTimes[tail] = eventTime;
+                return true;
+            }
+        }
+        if (mSize == capacity) {
+            return false;
+        }
+        int slot = (mHead + mSize) % capacity;
+        mScancodes[slot] = scancode;
+        mCounts[slot] = 1;
+        mEnqueueTimes[slot] = now;
+        mLastEventTimes[slot] = eventTime;
+        mSize++;
+        return true;
+    }
+
+    /**
+     * Removes the oldest entry and copies it into out.
+     *
+     * @return false if the queue was empty
+     */
+    synchronized boolean poll(Entry out) {
+        if (mSize == 0) {
+            return false;
+        }
+        out.scancode = mScancodes[mHead];
+        out.count = mCounts[mHead];
+        out.enqueueTime = mEnqueueTimes[mHead];
+        mHead = (mHead + 1) % mScancodes.length;
+        mSize--;
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return mSize == 0;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+
+import com.cyanogenmod.settings.device.gestures.GestureRegistry;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Feeds a recorded {@link GestureTrace} into a {@link KeyHandler}.
+ *
+ * Events are replayed with their original spacing divided by the given
+ * speed. While replaying, the key handler takes proximity readings from the
+ * trace and does not perform any actions; instead every dispatched gesture
+ * is reported here and written to the report. Replayed gestures are counted
+ * in stats of their own, so the handler's stats only cover real gestures.
+ */
+class GestureReplayer {
+
+    private static final String TAG = "GestureReplayer";
+
+    // Delay before the first event, and after the last one before reporting
+    private static final long START_DELAY = 100;
+    private static final long FINISH_DELAY = 2000;
+
+    private final KeyHandler mKeyHandler;
+    private final GestureTrace mTrace;
+    private final float mSpeed;
+    private final File mReport;
+    private final HandlerThread mThread;
+    private final StringBuilder mDispatchLog = new StringBuilder();
+    private final GestureStats mStats = new GestureStats(GestureRegistry.FIRST_SCANCODE,
+            GestureRegistry.SCANCODE_COUNT);
+    private long mStartUptime;
+    private int mNextEvent;
+
+    GestureReplayer(KeyHandler keyHandler, GestureTrace trace, float speed, File report) {
+        mKeyHandler = keyHandler;
+        mTrace = trace;
+        mSpeed = speed > 0 ? speed : 1f;
+        mReport = report;
+        mThread = new HandlerThread(TAG);
+    }
+
+    /**
+     * Returns true for key events sent by a replay. These come from the
+     * virtual keyboard device, real gestures come from the touchscreen.
+     */
+    static boolean isReplayed(KeyEvent event) {
+        return event.getDeviceId() == KeyCharacterMap.VIRTUAL_KEYBOARD;
+    }
+
+    GestureStats getStats() {
+        return mStats;
+    }
+
+    void start() {
+        mThread.start();
+        mStartUptime = SystemClock.uptimeMillis() + START_DELAY;
+        scheduleNext(new Handler(mThread.getLooper()));
+    }
+
+    private void scheduleNext(final Handler handler) {
+        if (mNextEvent == mTrace.size()) {
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                }
+            }, FINISH_DELAY);
+            return;
+        }
+        long when = mStartUptime + (long) (mTrace.getTime(mNextEvent) / mSpeed);
+        handler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                replay(mNextEvent, SystemClock.uptimeMillis());
+                mNextEvent++;
+                scheduleNext(handler);
+            }
+        }, when);
+    }
+
+    private void replay(int index, long now) {
+        if (mTrace.getType(index) == GestureTrace.TYPE_PROXIMITY) {
+            mKeyHandler.injectProximityState(
+                    mTrace.getValue(index) == GestureTrace.PROXIMITY_FAR);
+            return;
+        }
+        KeyEvent event = new KeyEvent(now, now, mTrace.getValue(index),
+                KeyEvent.KEYCODE_UNKNOWN, 0, 0, KeyCharacterMap.VIRTUAL_KEYBOARD,
+                mTrace.getCode(index));
+        mKeyHandler.handleKeyEvent(event);
+    }
+
+    /**
+     * Called on the key handler's event thread for every gesture that would
+     * have triggered its action.
+     */
+    void onGestureDispatched(int scancode, int count, long latencyNanos) {
+        synchronized (mDispatchLog) {
+            mDispatchLog.append("  scancode=").append(scancode)
+                    .append(" count=").append(count)
+                    .append(" latency=").append(latencyNanos / 1000).append("us\n");
+        }
+    }
+
+    private void finish() {
+        mKeyHandler.onReplayFinished(this);
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new FileWriter(mReport));
+            pw.println("Replayed " + mTrace.size() + " events at " + mSpeed + "x");
+            pw.println("Dispatched gestures:");
+            synchronized (mDispatchLog) {
+                pw.print(mDispatchLog);
+            }
+            pw.println("Gesture stats:");
+            mStats.dump(pw, "  ");
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write replay report to " + mReport, e);
+        } finally {
+            if (pw != null) {
+                pw.close();
+            }
+        }
+        mThread.quitSafely();
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Per-gesture latency histograms and event counters.
+ *
+ * All storage is allocated up front and updated with atomic operations, so
+ * recording never blocks or allocates and can be done from any thread.
+ * Latencies are kept in power-of-two microsecond buckets.
+ */
+class GestureStats {
+
+    // Key event received -> action started, including any proximity wait
+    static final int STAGE_QUEUE = 0;
+    // Time spent running the action itself
+    static final int STAGE_ACTION = 1;
+    // Key event received -> action finished
+    static final int STAGE_TOTAL = 2;
+    // Gesture wakelock held for the action, and for however long the action
+    // asked for the device to stay awake once it returned
+    static final int STAGE_WAKELOCK = 3;
+    static final int STAGE_COUNT = 4;
+
+    static final int COUNTER_RECEIVED = 0;
+    static final int COUNTER_DISPATCHED = 1;
+    // Dropped because the gesture queue was full
+    static final int COUNTER_DROPPED = 2;
+    static final int COUNTER_PROXIMITY_TIMEOUT = 3;
+    static final int COUNTER_PROXIMITY_NEAR = 4;
+    static final int COUNTER_COUNT = 5;
+
+    private static final String[] STAGE_NAMES = { "queue", "action", "total", "wakelock" };
+    private static final String[] COUNTER_NAMES = {
+        "received", "dispatched", "dropped", "proximity_timeout", "proximity_near"
+    };
+
+    // Bucket 0 holds everything below 1us, bucket n holds [2^(n-1), 2^n) us,
+    // the last one also collects everything above ~4s.
+    private static final int BUCKET_COUNT = 24;
+
+    private final int mFirstScancode;
+    private final int mGestureCount;
+    private final AtomicLongArray mBuckets;
+    private final AtomicLongArray mTotalMicros;
+    private final AtomicLongArray mMaxMicros;
+    private final AtomicLongArray mCounters;
+
+    GestureStats(int firstScancode, int gestureCount) {
+        mFirstScancode = firstScancode;
+        mGestureCount = gestureCount;
+        mBuckets = new AtomicLongArray(gestureCount * STAGE_COUNT * BUCKET_COUNT);
+        mTotalMicros = new AtomicLongArray(gestureCount * STAGE_COUNT);
+        mMaxMicros = new AtomicLongArray(gestureCount * STAGE_COUNT);
+        mCounters = new AtomicLongArray(gestureCount * COUNTER_COUNT);
+    }
+
+    private int gestureIndex(int scancode) {
+        int index = scancode - mFirstScancode;
+        return index >= 0 && index < mGestureCount ? index : -1;
+    }
+
+    void recordLatency(int scancode, int stage, long nanos) {
+        int gesture = gestureIndex(scancode);
+        if (gesture < 0) {
+            return;
+        }
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+        int slot = gesture * STAGE_COUNT + stage;
+
+        mBuckets.incrementAndGet(slot * BUCKET_COUNT + bucket);
+        mTotalMicros.addAndGet(slot, micros);
+        long max;
+        while (micros > (max = mMaxMicros.get(slot))) {
+            if (mMaxMicros.compareAndSet(slot, max, micros)) {
+                break;
+            }
+        }
+    }
+
+    void increment(int scancode, int counter) {
+        int gesture = gestureIndex(scancode);
+        if (gesture >= 0) {
+            mCounters.incrementAndGet(gesture * COUNTER_COUNT + counter);
+        }
+    }
+
+    long getCount(int scancode, int counter) {
+        int gesture = gestureIndex(scancode);
+        return gesture >= 0 ? mCounters.get(gesture * COUNTER_COUNT + counter) : 0;
+    }
+
+    void reset() {
+        for (int i = 0; i < mBuckets.length(); i++) {
+            mBuckets.set(i, 0);
+        }
+        for (int i = 0; i < mTotalMicros.length(); i++) {
+            mTotalMicros.set(i, 0);
+            mMaxMicros.set(i, 0);
+        }
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+    }
+
+    void dump(PrintWriter pw, String prefix) {
+        for (int gesture = 0; gesture < mGestureCount; gesture++) {
+            pw.print(prefix);
+            pw.print("scancode ");
+            pw.print(mFirstScancode + gesture);
+            pw.print(":");
+            for (int counter = 0; counter < COUNTER_COUNT; counter++) {
+                pw.print(" ");
+                pw.print(COUNTER_NAMES[counter]);
+                pw.print("=");
+                pw.print(mCounters.get(gesture * COUNTER_COUNT + counter));
+            }
+            pw.println();
+
+            for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                int slot = gesture * STAGE_COUNT + stage;
+                long count = 0;
+                for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                    count += mBuckets.get(slot * BUCKET_COUNT + bucket);
+                }
+                if (count == 0) {
+                    continue;
+                }
+                pw.print(prefix);
+                pw.print("  ");
+                pw.print(STAGE_NAMES[stage]);
+                pw.print(": n=");
+                pw.print(count);
+                pw.print(" mean=");
+                pw.print(mTotalMicros.get(slot) / count);
+                pw.print("us p50<");
+                pw.print(percentile(slot, count, 50));
+                pw.print("us p90<");
+                pw.print(percentile(slot, count, 90));
+                pw.print("us p99<");
+                pw.print(percentile(slot, count, 99));
+                pw.print("us max=");
+                pw.print(mMaxMicros.get(slot));
+                pw.println("us");
+            }
+        }
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket holding the
+     * given percentile.
+     */
+    private long percentile(int slot, long count, int percent) {
+        long target = (count * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += mBuckets.get(slot * BUCKET_COUNT + bucket);
+            if (seen >= target) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+}
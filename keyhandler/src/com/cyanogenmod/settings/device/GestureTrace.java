@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Compact recording of gesture key events and proximity readings.
+ *
+ * On disk a trace is a 16 byte header (magic, version, record count and the
+ * wall clock time the recording started) followed by one 8 byte record per
+ * event: the event time in milliseconds relative to the first event, the
+ * record type, the key action or proximity state and the scancode.
+ */
+class GestureTrace {
+
+    static final int TYPE_KEY = 0;
+    static final int TYPE_PROXIMITY = 1;
+
+    static final int PROXIMITY_NEAR = 0;
+    static final int PROXIMITY_FAR = 1;
+
+    private static final int MAGIC = 0x47545243; // "GTRC"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 8;
+    // Traces are read inside system_server, don't let a bad file size the
+    // allocation
+    private static final int MAX_RECORDS = 65536;
+
+    private final int[] mTimes;
+    private final byte[] mTypes;
+    private final byte[] mValues;
+    private final short[] mCodes;
+    private int mSize;
+    private long mStartUptime = -1;
+    private long mStartWallTime;
+
+    GestureTrace(int capacity) {
+        mTimes = new int[capacity];
+        mTypes = new byte[capacity];
+        mValues = new byte[capacity];
+        mCodes = new short[capacity];
+    }
+
+    synchronized void recordKey(long uptime, int action, int scancode) {
+        record(uptime, TYPE_KEY, action, scancode);
+    }
+
+    synchronized void recordProximity(long uptime, boolean far) {
+        record(uptime, TYPE_PROXIMITY, far ? PROXIMITY_FAR : PROXIMITY_NEAR, 0);
+    }
+
+    private void record(long uptime, int type, int value, int code) {
+        if (mSize == mTimes.length) {
+            // Full, keep what we have rather than overwriting the start
+            return;
+        }
+        if (mStartUptime < 0) {
+            mStartUptime = uptime;
+            mStartWallTime = System.currentTimeMillis();
+        }
+        mTimes[mSize] = (int) (uptime - mStartUptime);
+        mTypes[mSize] = (byte) type;
+        mValues[mSize] = (byte) value;
+        mCodes[mSize] = (short) code;
+        mSize++;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    synchronized int getTime(int index) {
+        return mTimes[index];
+    }
+
+    synchronized int getType(int index) {
+        return mTypes[index];
+    }
+
+    synchronized int getValue(int index) {
+        return mValues[index];
+    }
+
+    synchronized int getCode(int index) {
+        return mCodes[index];
+    }
+
+    synchronized void writeTo(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeInt(mSize);
+            out.writeInt((int) (mStartWallTime / 1000));
+            for (int i = 0; i < mSize; i++) {
+                out.writeInt(mTimes[i]);
+                out.writeByte(mTypes[i]);
+                out.writeByte(mValues[i]);
+                out.writeShort(mCodes[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static GestureTrace readFrom(File file) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a gesture trace: " + file);
+            }
+            int version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported gesture trace version " + version);
+            }
+            in.readShort();
+            int size = in.readInt();
+            if (size < 0 || size > MAX_RECORDS
+                    || file.length() != HEADER_SIZE + (long) size * RECORD_SIZE) {
+                throw new IOException("Corrupt gesture trace: " + file);
+            }
+            GestureTrace trace = new GestureTrace(size);
+            trace.mStartWallTime = in.readInt() * 1000L;
+            trace.mStartUptime = 0;
+            for (int i = 0; i < size; i++) {
+                trace.mTimes[i] = in.readInt();
+                trace.mTypes[i] = in.readByte();
+                trace.mValues[i] = in.readByte();
+                trace.mCodes[i] = in.readShort();
+            }
+            trace.mSize = size;
+            return trace;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -17,9 +17,12 @@
 package com.cyanogenmod.settings.device;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
@@ -28,62 +31,158 @@ import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.media.session.MediaSessionLegacyHelper;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
+import android.os.Process;
 import android.os.SystemClock;
+import android.os.SystemProperties;
 import android.os.Vibrator;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.KeyEvent;
 
+import com.android.internal.os.BackgroundThread;
 import com.android.internal.os.DeviceKeyHandler;
-import com.android.internal.util.ArrayUtils;
+import com.cyanogenmod.settings.device.gestures.GestureRegistry;
 
 import cyanogenmod.providers.CMSettings;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
 public class KeyHandler implements DeviceKeyHandler {
 
     private static final String TAG = KeyHandler.class.getSimpleName();
     private static final int GESTURE_REQUEST = 1;
 
-    // Supported scancodes
-    private static final int GESTURE_SLIDE_DOWN_SCANCODE = 249;
-    private static final int GESTURE_SLIDE_LEFT_SCANCODE = 250;
-    private static final int GESTURE_SLIDE_RIGHT_SCANCODE = 251;
-    private static final int GESTURE_SLIDE_C_SCANCODE = 252;
-    private static final int GESTURE_SLIDE_O_SCANCODE = 253;
+    // Set in arg2 of a gesture request that is waiting for the proximity sensor
+    private static final int GESTURE_PROXIMITY_PENDING = 1;
 
+    // Upper bound for how long a gesture keeps the device awake while its
+    // action runs
     private static final int GESTURE_WAKELOCK_DURATION = 3000;
 
-    private static final int[] sSupportedGestures = new int[] {
-        GESTURE_SLIDE_DOWN_SCANCODE,
-        GESTURE_SLIDE_LEFT_SCANCODE,
-        GESTURE_SLIDE_RIGHT_SCANCODE,
-        GESTURE_SLIDE_C_SCANCODE,
-        GESTURE_SLIDE_O_SCANCODE,
-    };
+    // The proximity wakelock is released once the gesture is handled. Its cap
+    // outlasts the check timeout so the request can't be left to a suspend.
+    private static final int PROXIMITY_WAKELOCK_MARGIN = 1000;
+
+    // How long the camera gesture keeps the device awake after its broadcast
+    // is sent, for the camera to be launched
+    private static final int CAMERA_WAKELOCK_DURATION = 1000;
+
+    // Gestures queued while an earlier one is still waiting to be dispatched
+    private static final int GESTURE_QUEUE_SIZE = 8;
+    // Repeats of a queued gesture within these windows are merged into it
+    private static final long MEDIA_TRACK_DEBOUNCE_WINDOW = 1500;
+    private static final long TOGGLE_DEBOUNCE_WINDOW = 500;
+    // Upper bound for media key presses sent for one merged gesture
+    private static final int MAX_MEDIA_KEY_REPEAT = 5;
+
+    // Keep a proximity listener running while the screen is off so gestures
+    // can use the last reading instead of waiting for the sensor to warm up
+    private static final String PROP_PROXIMITY_CACHE = "persist.gestures.prox_cache";
+
+    private static final int PROXIMITY_UNKNOWN = 0;
+    private static final int PROXIMITY_NEAR = 1;
+    private static final int PROXIMITY_FAR = 2;
+
+    // Rear camera used for the torch, saved so later boots skip enumeration
+    private static final String PROP_REAR_CAMERA_ID = "persist.sys.gestures.torch_camera";
+
+    // Writes the gesture stats and counters to STATS_PATH and the log, on all builds:
+    //   am broadcast -a com.cyanogenmod.keyhandler.action.DUMP_STATS
+    private static final String ACTION_DUMP_STATS =
+            "com.cyanogenmod.keyhandler.action.DUMP_STATS";
+    private static final String STATS_PATH = "/data/system/gesture_stats.txt";
+
+    // Gesture trace recording and replay, only available on debuggable builds:
+    //   am broadcast -a com.cyanogenmod.keyhandler.action.START_TRACE
+    //   am broadcast -a com.cyanogenmod.keyhandler.action.STOP_TRACE
+    //   am broadcast -a com.cyanogenmod.keyhandler.action.REPLAY_TRACE [--ef speed <factor>]
+    // The trace is written to and replayed from TRACE_PATH, the replay report
+    // goes to REPLAY_REPORT_PATH. Replayed gestures are counted in the
+    // replay's own stats. Gestures performed on the device meanwhile are
+    // ignored and counted as dropped.
+    private static final String ACTION_START_TRACE =
+            "com.cyanogenmod.keyhandler.action.START_TRACE";
+    private static final String ACTION_STOP_TRACE =
+            "com.cyanogenmod.keyhandler.action.STOP_TRACE";
+    private static final String ACTION_REPLAY_TRACE =
+            "com.cyanogenmod.keyhandler.action.REPLAY_TRACE";
+    private static final String EXTRA_REPLAY_SPEED = "speed";
+    private static final String TRACE_PATH = "/data/system/gesture_trace.bin";
+    private static final String REPLAY_REPORT_PATH = "/data/system/gesture_replay.txt";
+    private static final int TRACE_CAPACITY = 8192;
 
     private final Context mContext;
     private final PowerManager mPowerManager;
+    // Sensor callbacks, settings changes and gesture actions all run here, so
+    // they don't wait behind whatever else the constructing Looper is doing
+    private final HandlerThread mHandlerThread;
     private EventHandler mEventHandler;
     private SensorManager mSensorManager;
     private CameraManager mCameraManager;
-    private String mRearCameraId;
+    private volatile String mRearCameraId;
+    // Only used from the event handler thread, where both MyTorchCallback
+    // and the flashlight action run
     private boolean mTorchEnabled;
     private Sensor mProximitySensor;
     private Vibrator mVibrator;
     WakeLock mProximityWakeLock;
-    WakeLock mGestureWakeLock;
+    private WakeLock mGestureWakeLock;
+    // elapsedRealtime() until which the actions performed so far need the
+    // gesture wakelock. Only used from the event handler.
+    private long mGestureWakeLockUntil;
     private int mProximityTimeOut;
     private boolean mProximityWakeSupported;
+    private boolean mProximityCacheEnabled;
+    private volatile boolean mProximityCacheListening;
+    // Last reading of the cache listener, or the one injected by a replay
+    private volatile int mProximityState = PROXIMITY_UNKNOWN;
+    private final AtomicReference<GestureSettings> mSettings = new AtomicReference<>();
+    private final AtomicLong mSettingsQueriesAvoided = new AtomicLong();
+    // Indexed by GestureRegistry action
+    private final GestureAction[] mActions = new GestureAction[GestureRegistry.ACTION_COUNT];
+    private final GestureStats mStats = new GestureStats(GestureRegistry.FIRST_SCANCODE,
+            GestureRegistry.SCANCODE_COUNT);
+    private final GestureQueue mGestureQueue = new GestureQueue(GESTURE_QUEUE_SIZE);
+    // Only used from the event handler
+    private final GestureQueue.Entry mDispatchEntry = new GestureQueue.Entry();
+    // Only used from the proximity check listener
+    private final GestureQueue.Entry mDiscardEntry = new GestureQueue.Entry();
+    // Non-null while recording a trace of the gestures we receive
+    private volatile GestureTrace mRecording;
+    // Non-null while replaying a trace instead of acting on gestures
+    private volatile GestureReplayer mReplayer;
 
     public KeyHandler(Context context) {
         mContext = context;
         mPowerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
-        mEventHandler = new EventHandler();
+        mHandlerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mHandlerThread.start();
+        mEventHandler = new EventHandler(mHandlerThread.getLooper());
+        mActions[GestureRegistry.ACTION_PLAY_PAUSE] =
+                new MediaKeyAction(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, false);
+        mActions[GestureRegistry.ACTION_PREVIOUS_TRACK] =
+                new MediaKeyAction(KeyEvent.KEYCODE_MEDIA_PREVIOUS, true);
+        mActions[GestureRegistry.ACTION_NEXT_TRACK] =
+                new MediaKeyAction(KeyEvent.KEYCODE_MEDIA_NEXT, true);
+        mActions[GestureRegistry.ACTION_CAMERA] = new CameraAction();
+        mActions[GestureRegistry.ACTION_FLASHLIGHT] = new FlashlightAction();
         mGestureWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
                 "GestureWakeLock");
+        mGestureWakeLock.setReferenceCounted(false);
 
         final Resources resources = mContext.getResources();
         mProximityTimeOut = resources.getInteger(
@@ -96,34 +195,275 @@ public class KeyHandler implements DeviceKeyHandler {
             mProximitySensor = mSensorManager.getDefaultSensor(Sensor.TYPE_PROXIMITY);
             mProximityWakeLock = mPowerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
                     "ProximityWakeLock");
+            // A single listener serves overlapping checks, so one release
+            // has to undo any number of acquires
+            mProximityWakeLock.setReferenceCounted(false);
+
+            // Only an on-change sensor keeps its last reading valid, see
+            // isProximityStateValid()
+            mProximityCacheEnabled = mProximitySensor != null &&
+                    mProximitySensor.getReportingMode() == Sensor.REPORTING_MODE_ON_CHANGE &&
+                    SystemProperties.getBoolean(PROP_PROXIMITY_CACHE, false);
+            if (mProximityCacheEnabled) {
+                IntentFilter filter = new IntentFilter();
+                filter.addAction(Intent.ACTION_SCREEN_ON);
+                filter.addAction(Intent.ACTION_SCREEN_OFF);
+                mContext.registerReceiver(mScreenStateReceiver, filter, null, mEventHandler);
+            }
         }
 
         mVibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
         if (!mVibrator.hasVibrator()) {
             mVibrator = null;
         }
+
+        new SettingsObserver(mEventHandler).observe();
+
+        // Resolve the torch camera once boot is done rather than on the first gesture
+        mContext.registerReceiver(mBootCompletedReceiver,
+                new IntentFilter(Intent.ACTION_BOOT_COMPLETED));
+
+        mContext.registerReceiver(mDumpStatsReceiver, new IntentFilter(ACTION_DUMP_STATS),
+                Manifest.permission.DUMP, mEventHandler);
+
+        if (Build.IS_DEBUGGABLE) {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(ACTION_START_TRACE);
+            filter.addAction(ACTION_STOP_TRACE);
+            filter.addAction(ACTION_REPLAY_TRACE);
+            mContext.registerReceiver(mTraceControlReceiver, filter,
+                    Manifest.permission.DUMP, mEventHandler);
+        }
+    }
+
+    private final BroadcastReceiver mBootCompletedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mContext.unregisterReceiver(this);
+            mEventHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // Unless a gesture or a settings change got there first
+                    mSettings.compareAndSet(null, loadSettings());
+                }
+            });
+            BackgroundThread.getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    ensureCameraManager();
+                }
+            });
+        }
+    };
+
+    private final BroadcastReceiver mDumpStatsReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            BackgroundThread.getHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    writeStats(new File(STATS_PATH));
+                }
+            });
+        }
+    };
+
+    private void writeStats(File file) {
+        StringWriter stats = new StringWriter();
+        PrintWriter pw = new PrintWriter(stats);
+        dump(pw);
+        pw.flush();
+        // Logged as well, the file may not be readable from the shell
+        Log.i(TAG, stats.toString());
+
+        FileWriter writer = null;
+        try {
+            writer = new FileWriter(file);
+            writer.write(stats.toString());
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write gesture stats to " + file, e);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private final BroadcastReceiver mTraceControlReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final String action = intent.getAction();
+            final File traceFile = new File(TRACE_PATH);
+
+            if (ACTION_START_TRACE.equals(action)) {
+                mRecording = new GestureTrace(TRACE_CAPACITY);
+            } else if (ACTION_STOP_TRACE.equals(action)) {
+                final GestureTrace trace = mRecording;
+                mRecording = null;
+                if (trace == null) {
+                    return;
+                }
+                BackgroundThread.getHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            trace.writeTo(traceFile);
+                        } catch (IOException e) {
+                            Log.e(TAG, "Unable to write gesture trace to " + traceFile, e);
+                        }
+                    }
+                });
+            } else if (ACTION_REPLAY_TRACE.equals(action)) {
+                final float speed = intent.getFloatExtra(EXTRA_REPLAY_SPEED, 1f);
+                final File reportFile = new File(REPLAY_REPORT_PATH);
+                BackgroundThread.getHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            GestureTrace trace = GestureTrace.readFrom(traceFile);
+                            startReplay(new GestureReplayer(KeyHandler.this, trace, speed,
+                                    reportFile));
+                        } catch (IOException e) {
+                            Log.e(TAG, "Unable to read gesture trace from " + traceFile, e);
+                        }
+                    }
+                });
+            }
+        }
+    };
+
+    private synchronized void startReplay(GestureReplayer replayer) {
+        if (mReplayer != null) {
+            Log.w(TAG, "Already replaying a gesture trace");
+            return;
+        }
+        Log.w(TAG, "Replaying gesture trace, real gestures are ignored until it is done");
+        mProximityState = PROXIMITY_UNKNOWN;
+        mReplayer = replayer;
+        replayer.start();
     }
 
-    private void ensureCameraManager() {
+    synchronized void onReplayFinished(GestureReplayer replayer) {
+        if (mReplayer == replayer) {
+            mReplayer = null;
+            mProximityState = PROXIMITY_UNKNOWN;
+        }
+    }
+
+    /**
+     * Returns the stats gestures are counted in, the replay's own while a
+     * trace is being replayed.
+     */
+    private GestureStats getStats() {
+        final GestureReplayer replayer = mReplayer;
+        return replayer != null ? replayer.getStats() : mStats;
+    }
+
+    /**
+     * Used by {@link GestureReplayer} to stand in for the proximity sensor.
+     */
+    void injectProximityState(boolean far) {
+        mProximityState = far ? PROXIMITY_FAR : PROXIMITY_NEAR;
+    }
+
+    /**
+     * Immutable snapshot of the settings consulted on the gesture path. A new
+     * instance is swapped in by {@link SettingsObserver} whenever one of them
+     * changes, so handling a gesture never has to query the settings provider.
+     */
+    private static final class GestureSettings {
+        final boolean proximityWakeCheckEnabled;
+        final boolean hapticFeedbackEnabled;
+
+        GestureSettings(boolean proximityWakeCheckEnabled, boolean hapticFeedbackEnabled) {
+            this.proximityWakeCheckEnabled = proximityWakeCheckEnabled;
+            this.hapticFeedbackEnabled = hapticFeedbackEnabled;
+        }
+    }
+
+    private class SettingsObserver extends ContentObserver {
+        SettingsObserver(Handler handler) {
+            super(handler);
+        }
+
+        void observe() {
+            mContext.getContentResolver().registerContentObserver(
+                    CMSettings.System.getUriFor(CMSettings.System.PROXIMITY_ON_WAKE),
+                    false, this);
+            mContext.getContentResolver().registerContentObserver(
+                    CMSettings.System.getUriFor(
+                            CMSettings.System.TOUCHSCREEN_GESTURE_HAPTIC_FEEDBACK),
+                    false, this);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mSettings.set(loadSettings());
+        }
+    }
+
+    private GestureSettings loadSettings() {
+        boolean defaultProximity = mContext.getResources().getBoolean(
+                org.cyanogenmod.platform.internal.R.bool.config_proximityCheckOnWakeEnabledByDefault);
+        boolean proximityWakeCheckEnabled = CMSettings.System.getInt(mContext.getContentResolver(),
+                CMSettings.System.PROXIMITY_ON_WAKE, defaultProximity ? 1 : 0) == 1;
+        boolean hapticFeedbackEnabled = CMSettings.System.getInt(mContext.getContentResolver(),
+                CMSettings.System.TOUCHSCREEN_GESTURE_HAPTIC_FEEDBACK, 1) != 0;
+        return new GestureSettings(proximityWakeCheckEnabled, hapticFeedbackEnabled);
+    }
+
+    private GestureSettings getSettings() {
+        GestureSettings settings = mSettings.get();
+        if (settings != null) {
+            mSettingsQueriesAvoided.incrementAndGet();
+            return settings;
+        }
+        // The settings provider may not be up yet when we are constructed, so
+        // the first snapshot is taken once boot completes. A gesture before
+        // that loads it here, but keeps any snapshot that SettingsObserver
+        // installed in the meantime, as that one is newer.
+        settings = loadSettings();
+        if (!mSettings.compareAndSet(null, settings)) {
+            settings = mSettings.get();
+        }
+        return settings;
+    }
+
+    /**
+     * Returns the number of settings provider queries that were served from
+     * the cached snapshot instead.
+     */
+    public long getSettingsQueriesAvoided() {
+        return mSettingsQueriesAvoided.get();
+    }
+
+    private synchronized void ensureCameraManager() {
         if (mCameraManager != null) {
             return;
         }
-        mCameraManager = (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
+        CameraManager cameraManager =
+                (CameraManager) mContext.getSystemService(Context.CAMERA_SERVICE);
 
-        // Get first rear camera id
+        String rearCameraId = SystemProperties.get(PROP_REAR_CAMERA_ID);
         try {
-            for (final String cameraId : mCameraManager.getCameraIdList()) {
-                CameraCharacteristics characteristics =
-                        mCameraManager.getCameraCharacteristics(cameraId);
-                int cOrientation = characteristics.get(CameraCharacteristics.LENS_FACING);
-                if (cOrientation == CameraCharacteristics.LENS_FACING_BACK) {
-                    mRearCameraId = cameraId;
-                    break;
+            if (TextUtils.isEmpty(rearCameraId) || !isRearCamera(cameraManager, rearCameraId)) {
+                rearCameraId = findRearCamera(cameraManager);
+                if (rearCameraId != null) {
+                    SystemProperties.set(PROP_REAR_CAMERA_ID, rearCameraId);
                 }
             }
         } catch (CameraAccessException e) {
-            // Ignore
+            // The camera service is not ready yet, try again next time
+            Log.w(TAG, "Unable to query cameras", e);
+            return;
         }
+
+        mCameraManager = cameraManager;
+        mRearCameraId = rearCameraId;
         if (mRearCameraId == null) {
             Log.e(TAG, "Cannot find rear camera for torch usage");
         } else {
@@ -131,6 +471,30 @@ public class KeyHandler implements DeviceKeyHandler {
         }
     }
 
+    private static boolean isRearCamera(CameraManager cameraManager, String cameraId)
+            throws CameraAccessException {
+        try {
+            CameraCharacteristics characteristics =
+                    cameraManager.getCameraCharacteristics(cameraId);
+            int cOrientation = characteristics.get(CameraCharacteristics.LENS_FACING);
+            return cOrientation == CameraCharacteristics.LENS_FACING_BACK;
+        } catch (IllegalArgumentException e) {
+            // No such camera anymore
+            return false;
+        }
+    }
+
+    private static String findRearCamera(CameraManager cameraManager)
+            throws CameraAccessException {
+        // Get first rear camera id
+        for (final String cameraId : cameraManager.getCameraIdList()) {
+            if (isRearCamera(cameraManager, cameraId)) {
+                return cameraId;
+            }
+        }
+        return null;
+    }
+
     private class MyTorchCallback extends CameraManager.TorchCallback {
         @Override
         public void onTorchModeChanged(String cameraId, boolean enabled) {
@@ -149,66 +513,277 @@ public class KeyHandler implements DeviceKeyHandler {
         }
     }
 
+    /**
+     * Action triggered by a gesture, performed on the event handler.
+     */
+    private abstract static class GestureAction {
+        // Repeats within this many milliseconds are merged into one request
+        final long debounceWindow;
+        // How many milliseconds the device is kept awake once perform()
+        // returns, for work the action started elsewhere
+        final long wakeLockHold;
+
+        GestureAction(long debounceWindow, long wakeLockHold) {
+            this.debounceWindow = debounceWindow;
+            this.wakeLockHold = wakeLockHold;
+        }
+
+        /**
+         * @param count how many times the gesture was performed, always >= 1
+         */
+        abstract void perform(int scancode, int count);
+    }
+
+    private class MediaKeyAction extends GestureAction {
+        private final int mKeyCode;
+        private final boolean mRepeatable;
+
+        MediaKeyAction(int keyCode, boolean repeatable) {
+            super(repeatable ? MEDIA_TRACK_DEBOUNCE_WINDOW : TOGGLE_DEBOUNCE_WINDOW, 0);
+            mKeyCode = keyCode;
+            mRepeatable = repeatable;
+        }
+
+        @Override
+        void perform(int scancode, int count) {
+            doHapticFeedback();
+            int presses = mRepeatable ? Math.min(count, MAX_MEDIA_KEY_REPEAT) : 1;
+            for (int i = 0; i < presses; i++) {
+                dispatchMediaKeyWithWakeLockToMediaSession(mKeyCode);
+            }
+        }
+    }
+
+    private class CameraAction extends GestureAction {
+        // The activity manager copies broadcast intents, so one is enough
+        private final Intent mIntent =
+                new Intent(cyanogenmod.content.Intent.ACTION_SCREEN_CAMERA_GESTURE);
+
+        CameraAction() {
+            super(TOGGLE_DEBOUNCE_WINDOW, CAMERA_WAKELOCK_DURATION);
+        }
+
+        @Override
+        void perform(int scancode, int count) {
+            doHapticFeedback();
+            mContext.sendBroadcast(mIntent, Manifest.permission.STATUS_BAR_SERVICE);
+        }
+    }
+
+    private class FlashlightAction extends GestureAction {
+        FlashlightAction() {
+            super(TOGGLE_DEBOUNCE_WINDOW, 0);
+        }
+
+        @Override
+        void perform(int scancode, int count) {
+            // Repeated gestures still only toggle the torch once
+            doHapticFeedback();
+            try {
+                ensureCameraManager();
+                if (mRearCameraId == null) {
+                    return;
+                }
+                // mTorchEnabled follows the torch callback, it is not flipped
+                // here in case the request does not go through.
+                mCameraManager.setTorchMode(mRearCameraId, !mTorchEnabled);
+            } catch (CameraAccessException e) {
+                Log.e(TAG, "setTorchMode failed", e);
+            }
+        }
+    }
+
     private class EventHandler extends Handler {
+        EventHandler(Looper looper) {
+            super(looper);
+        }
+
         @Override
         public void handleMessage(Message msg) {
-            switch (msg.arg1) {
-            case GESTURE_SLIDE_DOWN_SCANCODE:
-                doHapticFeedback();
-                dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE);
-                break;
-            case GESTURE_SLIDE_LEFT_SCANCODE:
-                doHapticFeedback();
-                dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_PREVIOUS);
-                break;
-            case GESTURE_SLIDE_RIGHT_SCANCODE:
-                doHapticFeedback();
-                dispatchMediaKeyWithWakeLockToMediaSession(KeyEvent.KEYCODE_MEDIA_NEXT);
-                break;
-            case GESTURE_SLIDE_C_SCANCODE:
-                doHapticFeedback();
+            if (msg.arg2 == GESTURE_PROXIMITY_PENDING) {
+                // The sensor did not report in time, stop waiting for it
+                mSensorManager.unregisterListener(mProximityCheckListener);
+            }
+
+            final GestureQueue.Entry entry = mDispatchEntry;
+            while (mGestureQueue.poll(entry)) {
+                final int scancode = entry.scancode;
+                final GestureAction action = mActions[GestureRegistry.get(scancode).action];
+                final long actionStart = SystemClock.elapsedRealtimeNanos();
+                // Capped in case the action hangs, shortened to what the
+                // actions need once they are done
                 mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
+                if (msg.arg2 == GESTURE_PROXIMITY_PENDING) {
+                    getStats().increment(scancode, GestureStats.COUNTER_PROXIMITY_TIMEOUT);
+                }
+                getStats().recordLatency(scancode, GestureStats.STAGE_QUEUE,
+                        actionStart - entry.enqueueTime);
 
-                Intent intent = new Intent(cyanogenmod.content.Intent.ACTION_SCREEN_CAMERA_GESTURE);
-                mContext.sendBroadcast(intent, Manifest.permission.STATUS_BAR_SERVICE);
-                break;
-            case GESTURE_SLIDE_O_SCANCODE:
-                doHapticFeedback();
-                ensureCameraManager();
-                if (mRearCameraId != null) {
-                    mGestureWakeLock.acquire(GESTURE_WAKELOCK_DURATION);
-                    try {
-                        mCameraManager.setTorchMode(mRearCameraId, !mTorchEnabled);
-                        mTorchEnabled = !mTorchEnabled;
-                    } catch (CameraAccessException e) {
-                        Log.e(TAG, "setTorchMode " + mTorchEnabled + " failed: " + e);
-                    }
+                final GestureReplayer replayer = mReplayer;
+                long hold = 0;
+                if (replayer != null) {
+                    replayer.onGestureDispatched(scancode, entry.count,
+                            actionStart - entry.enqueueTime);
+                } else {
+                    action.perform(scancode, entry.count);
+                    hold = action.wakeLockHold;
                 }
-                break;
+
+                final long actionEnd = SystemClock.elapsedRealtimeNanos();
+                mGestureWakeLockUntil = Math.max(mGestureWakeLockUntil,
+                        SystemClock.elapsedRealtime() + hold);
+                getStats().recordLatency(scancode, GestureStats.STAGE_WAKELOCK,
+                        Math.min(actionEnd - actionStart, GESTURE_WAKELOCK_DURATION * 1000000L)
+                        + hold * 1000000L);
+                getStats().recordLatency(scancode, GestureStats.STAGE_ACTION,
+                        actionEnd - actionStart);
+                getStats().recordLatency(scancode, GestureStats.STAGE_TOTAL,
+                        actionEnd - entry.enqueueTime);
+                getStats().increment(scancode, GestureStats.COUNTER_DISPATCHED);
             }
+            releaseGestureWakeLock();
+            releaseProximityWakeLock();
+        }
+    }
+
+    /**
+     * Releases the gesture wakelock, or keeps it only for as long as the
+     * actions performed so far asked for once they returned.
+     */
+    private void releaseGestureWakeLock() {
+        if (!mGestureWakeLock.isHeld()) {
+            return;
+        }
+        final long remaining = mGestureWakeLockUntil - SystemClock.elapsedRealtime();
+        if (remaining > 0) {
+            // Replaces the timeout of the capped acquire
+            mGestureWakeLock.acquire(remaining);
+        } else {
+            mGestureWakeLock.release();
+        }
+    }
+
+    private final BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                if (!mProximityCacheListening) {
+                    mSensorManager.registerListener(mProximityCacheListener, mProximitySensor,
+                            SensorManager.SENSOR_DELAY_NORMAL, mEventHandler);
+                    mProximityCacheListening = true;
+                }
+            } else if (mProximityCacheListening) {
+                mSensorManager.unregisterListener(mProximityCacheListener);
+                mProximityCacheListening = false;
+                mProximityState = PROXIMITY_UNKNOWN;
+            }
+        }
+    };
+
+    private final SensorEventListener mProximityCacheListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            updateProximityState(event);
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    };
+
+    private boolean isProximityFar(SensorEvent event) {
+        return event.values[0] == mProximitySensor.getMaximumRange();
+    }
+
+    private void updateProximityState(SensorEvent event) {
+        final boolean far = isProximityFar(event);
+        recordProximity(far);
+        if (mReplayer != null) {
+            // The trace being replayed provides the readings
+            return;
+        }
+        mProximityState = far ? PROXIMITY_FAR : PROXIMITY_NEAR;
+    }
+
+    private void recordProximity(boolean far) {
+        final GestureTrace recording = mRecording;
+        if (recording != null) {
+            recording.recordProximity(SystemClock.uptimeMillis(), far);
         }
     }
 
+    /**
+     * The proximity sensor only reports transitions, so its last reading
+     * stays valid for as long as the cache listener is registered, however
+     * old it is. There is no freshness window to check it against.
+     */
+    private boolean isProximityStateValid(int state) {
+        if (state == PROXIMITY_UNKNOWN) {
+            return false;
+        }
+        return mReplayer != null || mProximityCacheListening;
+    }
+
     public boolean handleKeyEvent(KeyEvent event) {
-        boolean isKeySupported = ArrayUtils.contains(sSupportedGestures, event.getScanCode());
-        if (!isKeySupported) {
+        if (GestureRegistry.get(event.getScanCode()) == null) {
             return false;
         }
 
+        final GestureReplayer replayer = mReplayer;
+        if (replayer != null && !GestureReplayer.isReplayed(event)) {
+            // A real gesture while replaying, keep it out of the replay
+            if (event.getAction() == KeyEvent.ACTION_UP) {
+                mStats.increment(event.getScanCode(), GestureStats.COUNTER_DROPPED);
+            }
+            return true;
+        }
+        final GestureTrace recording = mRecording;
+        if (recording != null && replayer == null) {
+            recording.recordKey(event.getEventTime(), event.getAction(), event.getScanCode());
+        }
+
         // We only want ACTION_UP event
         if (event.getAction() != KeyEvent.ACTION_UP) {
             return true;
         }
 
+        final int scancode = event.getScanCode();
+        getStats().increment(scancode, GestureStats.COUNTER_RECEIVED);
+
+        boolean proximityWakeCheckEnabled = getSettings().proximityWakeCheckEnabled;
+        boolean checkProximity = mProximityWakeSupported && proximityWakeCheckEnabled &&
+                mProximitySensor != null;
+        if (checkProximity && (mProximityCacheEnabled || replayer != null)) {
+            int state = mProximityState;
+            if (isProximityStateValid(state)) {
+                if (state == PROXIMITY_NEAR) {
+                    getStats().increment(scancode, GestureStats.COUNTER_PROXIMITY_NEAR);
+                    return true;
+                }
+                checkProximity = false;
+            }
+        }
+        if (replayer != null) {
+            // Without a reading from the trace, treat the sensor as uncovered
+            checkProximity = false;
+        }
+
+        final GestureAction action = mActions[GestureRegistry.get(scancode).action];
+        if (!mGestureQueue.offer(scancode, event.getEventTime(),
+                SystemClock.elapsedRealtimeNanos(), action.debounceWindow)) {
+            getStats().increment(scancode, GestureStats.COUNTER_DROPPED);
+            return true;
+        }
+
+        // A pending request dispatches everything queued so far, including
+        // this gesture, so only schedule a new one when there is none.
         if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
-            Message msg = getMessageForKeyEvent(event.getScanCode());
-            boolean defaultProximity = mContext.getResources().getBoolean(
-                    org.cyanogenmod.platform.internal.R.bool.config_proximityCheckOnWakeEnabledByDefault);
-            boolean proximityWakeCheckEnabled = CMSettings.System.getInt(mContext.getContentResolver(),
-                    CMSettings.System.PROXIMITY_ON_WAKE, defaultProximity ? 1 : 0) == 1;
-            if (mProximityWakeSupported && proximityWakeCheckEnabled && mProximitySensor != null) {
+            Message msg = mEventHandler.obtainMessage(GESTURE_REQUEST);
+            if (checkProximity) {
+                msg.arg2 = GESTURE_PROXIMITY_PENDING;
                 mEventHandler.sendMessageDelayed(msg, mProximityTimeOut);
-                processEvent(event.getScanCode());
+                // Set up on the event handler thread, after any timeout that
+                // is being handled there right now
+                mEventHandler.post(mProcessEventRunnable);
             } else {
                 mEventHandler.sendMessage(msg);
             }
@@ -217,41 +792,67 @@ public class KeyHandler implements DeviceKeyHandler {
         return true;
     }
 
-    private Message getMessageForKeyEvent(int scancode) {
-        Message msg = mEventHandler.obtainMessage(GESTURE_REQUEST);
-        msg.arg1 = scancode;
-        return msg;
+    private final Runnable mProcessEventRunnable = new Runnable() {
+        @Override
+        public void run() {
+            processEvent();
+        }
+    };
+
+    /**
+     * Starts a proximity check. Only called on the event handler thread, like
+     * everything else that touches the check listener or its wakelock.
+     */
+    private void processEvent() {
+        // Released once the request is handled, or when the sensor reports
+        // near and the gestures are discarded
+        mProximityWakeLock.acquire(mProximityTimeOut + PROXIMITY_WAKELOCK_MARGIN);
+        // If an earlier check is still waiting for its first sample the
+        // listener stays registered and that sample is used for this gesture.
+        mSensorManager.registerListener(mProximityCheckListener, mProximitySensor,
+                SensorManager.SENSOR_DELAY_FASTEST, mEventHandler);
     }
 
-    private void processEvent(final int scancode) {
-        mProximityWakeLock.acquire();
-        mSensorManager.registerListener(new SensorEventListener() {
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                mProximityWakeLock.release();
-                mSensorManager.unregisterListener(this);
-                if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
-                    // The sensor took too long, ignoring.
-                    return;
-                }
-                mEventHandler.removeMessages(GESTURE_REQUEST);
-                if (event.values[0] == mProximitySensor.getMaximumRange()) {
-                    Message msg = getMessageForKeyEvent(scancode);
-                    mEventHandler.sendMessage(msg);
+    private final SensorEventListener mProximityCheckListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            mSensorManager.unregisterListener(this);
+            recordProximity(isProximityFar(event));
+            if (!mEventHandler.hasMessages(GESTURE_REQUEST)) {
+                // The sensor took too long, ignoring.
+                return;
+            }
+            mEventHandler.removeMessages(GESTURE_REQUEST);
+            if (isProximityFar(event)) {
+                mEventHandler.sendEmptyMessage(GESTURE_REQUEST);
+            } else {
+                final GestureQueue.Entry entry = mDiscardEntry;
+                while (mGestureQueue.poll(entry)) {
+                    getStats().increment(entry.scancode, GestureStats.COUNTER_PROXIMITY_NEAR);
                 }
+                releaseProximityWakeLock();
             }
+        }
 
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+    };
 
-        }, mProximitySensor, SensorManager.SENSOR_DELAY_FASTEST);
+    private void releaseProximityWakeLock() {
+        if (mProximityWakeLock != null && mProximityWakeLock.isHeld()) {
+            mProximityWakeLock.release();
+        }
     }
 
     private void dispatchMediaKeyWithWakeLockToMediaSession(int keycode) {
         MediaSessionLegacyHelper helper = MediaSessionLegacyHelper.getHelper(mContext);
         if (helper != null) {
-            KeyEvent event = new KeyEvent(SystemClock.uptimeMillis(),
-                    SystemClock.uptimeMillis(), KeyEvent.ACTION_DOWN, keycode, 0);
+            // New events for every press, stamped with the time it is sent.
+            // The media session service keeps the events it is handed, for
+            // long press detection and to rebroadcast them, so they can't be
+            // reused or recycled.
+            final long now = SystemClock.uptimeMillis();
+            KeyEvent event = new KeyEvent(now, now, KeyEvent.ACTION_DOWN, keycode, 0);
             helper.sendMediaButtonEvent(event, true);
             event = KeyEvent.changeAction(event, KeyEvent.ACTION_UP);
             helper.sendMediaButtonEvent(event, true);
@@ -264,10 +865,17 @@ public class KeyHandler implements DeviceKeyHandler {
         if (mVibrator == null) {
             return;
         }
-        boolean enabled = CMSettings.System.getInt(mContext.getContentResolver(),
-                CMSettings.System.TOUCHSCREEN_GESTURE_HAPTIC_FEEDBACK, 1) != 0;
-        if (enabled) {
+        if (getSettings().hapticFeedbackEnabled) {
             mVibrator.vibrate(50);
         }
     }
+
+    public void dump(PrintWriter pw) {
+        pw.println(TAG + " state:");
+        pw.println("  mProximityWakeSupported=" + mProximityWakeSupported);
+        pw.println("  mProximityCacheEnabled=" + mProximityCacheEnabled);
+        pw.println("  mSettingsQueriesAvoided=" + mSettingsQueriesAvoided.get());
+        pw.println("  Gesture stats:");
+        mStats.dump(pw, "    ");
+    }
 }
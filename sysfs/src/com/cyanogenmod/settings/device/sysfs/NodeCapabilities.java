@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.sysfs;
+
+import android.os.Build;
+import android.os.SystemProperties;
+import android.util.Log;
+
+/*
+ * Which of the device's control nodes are usable
+ *
+ * The nodes only change with a new kernel or sepolicy, so a node that was
+ * found usable is remembered in a persistent property together with a
+ * fingerprint of the kernel and system build. Later boots, and other
+ * processes, trust that until the fingerprint changes. A node that isn't
+ * usable is probed again on every check instead: it may only be missing for
+ * now, e.g. while the touch driver isn't bound yet.
+ */
+public final class NodeCapabilities {
+
+    private static final String TAG = NodeCapabilities.class.getSimpleName();
+
+    public static final int TOUCHSCREEN_GESTURES = 0;
+
+    public static final String GESTURE_CTRL_NODE =
+            "/sys/devices/virtual/touchscreen/touchscreen_dev/gesture_ctrl";
+
+    private static final String KERNEL_VERSION_NODE = "/proc/version";
+
+    // Node for each capability, which has to be readable and writable
+    private static final String[] PATHS = {
+        GESTURE_CTRL_NODE
+    };
+
+    // "<fingerprint>:<supported bits>", only ever has bits added
+    private static final String PROP_CAPABILITIES = "persist.sys.device.node_caps";
+
+    private static volatile boolean sLoaded;
+    // Capabilities found to be supported, guarded by the class for writes
+    private static volatile int sSupported;
+    private static String sFingerprint;
+
+    private NodeCapabilities() {
+    }
+
+    public static boolean isSupported(int capability) {
+        if (!sLoaded) {
+            load();
+        }
+        if ((sSupported & (1 << capability)) != 0) {
+            return true;
+        }
+        return probe(capability);
+    }
+
+    private static synchronized void load() {
+        if (sLoaded) {
+            return;
+        }
+
+        sFingerprint = getFingerprint();
+        final String saved = SystemProperties.get(PROP_CAPABILITIES);
+        final int separator = saved.indexOf(':');
+        if (separator > 0 && saved.substring(0, separator).equals(sFingerprint)) {
+            try {
+                sSupported = Integer.parseInt(saved.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                Log.w(TAG, "Ignoring malformed " + PROP_CAPABILITIES + ": " + saved);
+            }
+        }
+        sLoaded = true;
+    }
+
+    /**
+     * Checks a capability that isn't known to be supported, and remembers it
+     * if it turns out to be.
+     */
+    private static synchronized boolean probe(int capability) {
+        final int bit = 1 << capability;
+        if ((sSupported & bit) != 0) {
+            return true;
+        }
+        SysfsNode node = SysfsNode.get(PATHS[capability]);
+        if (!node.canRead() || !node.canWrite()) {
+            return false;
+        }
+
+        sSupported |= bit;
+        Log.i(TAG, "Node capabilities: " + Integer.toBinaryString(sSupported));
+        try {
+            SystemProperties.set(PROP_CAPABILITIES, sFingerprint + ":" + sSupported);
+        } catch (RuntimeException e) {
+            // Not allowed to set it, probe again in the next process
+            Log.w(TAG, "Unable to save node capabilities", e);
+        }
+        return true;
+    }
+
+    /**
+     * Identifies the kernel and system build. Access to the nodes depends on
+     * the kernel as well as on sepolicy, which comes with the system build.
+     * The system build is told apart by its build time, Build.FINGERPRINT is
+     * overridden with a fixed stock value and doesn't change between builds.
+     */
+    private static String getFingerprint() {
+        SysfsNode version = SysfsNode.get(KERNEL_VERSION_NODE);
+        String kernel = version.readLine();
+        version.close();
+        int hash = 31 * String.valueOf(kernel).hashCode() + Long.valueOf(Build.TIME).hashCode();
+        return Integer.toHexString(hash);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.sysfs;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A single sysfs attribute, kept open between calls
+ *
+ * Linked into the config panel as a static library. Reads and writes always
+ * go to offset 0 of a channel that stays open, which makes sysfs call the
+ * attribute's show/store again without a new open() and close() for every
+ * access. If an access fails the channel is closed and opened again on the
+ * next call.
+ *
+ * Reads can optionally be served from a cache for a given time, for nodes
+ * that are polled more often than they change. Writing through the node
+ * drops the cached value.
+ */
+public final class SysfsNode {
+
+    private static final String TAG = SysfsNode.class.getSimpleName();
+
+    // Sysfs attributes are at most a page
+    private static final int MAX_SIZE = 4096;
+
+    private static final Map<String, SysfsNode> sNodes = new HashMap<>();
+    private static File sRoot = new File("/");
+
+    private final File mFile;
+    private final long mCacheNanos;
+    private final ByteBuffer mBuffer = ByteBuffer.allocate(MAX_SIZE);
+
+    private FileChannel mReadChannel;
+    private FileChannel mWriteChannel;
+    private String mCachedValue;
+    private long mCachedTime;
+
+    // Metrics, guarded by this
+    private long mReads;
+    private long mCacheHits;
+    private long mWrites;
+    private long mErrors;
+    private long mBytesRead;
+    private long mBytesWritten;
+    private long mReadNanos;
+    private long mWriteNanos;
+
+    private SysfsNode(File file, long cacheMillis) {
+        mFile = file;
+        mCacheNanos = cacheMillis * 1000000L;
+    }
+
+    /**
+     * Returns the node for the given absolute path, without read caching.
+     */
+    public static SysfsNode get(String path) {
+        return get(path, 0);
+    }
+
+    /**
+     * Returns the node for the given absolute path. Reads are served from
+     * the cache for up to cacheMillis after the node was last read; the
+     * cache setting of the first caller wins.
+     */
+    public static SysfsNode get(String path, long cacheMillis) {
+        synchronized (sNodes) {
+            SysfsNode node = sNodes.get(path);
+            if (node == null) {
+                node = new SysfsNode(new File(sRoot, path), cacheMillis);
+                sNodes.put(path, node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Resolves all node paths against root instead of "/", so the nodes can
+     * be stood in for by plain files in a temporary directory. Nodes handed
+     * out before are closed and must not be used any more.
+     */
+    public static void setRoot(File root) {
+        synchronized (sNodes) {
+            for (SysfsNode node : sNodes.values()) {
+                node.close();
+            }
+            sNodes.clear();
+            sRoot = root;
+        }
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    public boolean canRead() {
+        return mFile.canRead();
+    }
+
+    public boolean canWrite() {
+        return mFile.canWrite();
+    }
+
+    /**
+     * Returns the first line of the node, or null if it can't be read.
+     */
+    public synchronized String readLine() {
+        final long start = System.nanoTime();
+        if (mCachedValue != null && start - mCachedTime < mCacheNanos) {
+            mCacheHits++;
+            return mCachedValue;
+        }
+
+        String value = null;
+        try {
+            if (mReadChannel == null) {
+                mReadChannel = new FileInputStream(mFile).getChannel();
+            }
+            mBuffer.clear();
+            // Positional reads advance the buffer but not the channel
+            while (mBuffer.hasRemaining()
+                    && mReadChannel.read(mBuffer, mBuffer.position()) > 0) {
+            }
+            value = firstLine(mBuffer.array(), mBuffer.position());
+            mBytesRead += mBuffer.position();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read " + mFile, e);
+            mErrors++;
+            closeRead();
+        }
+
+        final long now = System.nanoTime();
+        mReads++;
+        mReadNanos += now - start;
+        mCachedValue = value;
+        mCachedTime = now;
+        return value;
+    }
+
+    /**
+     * Writes value followed by a newline to the node.
+     *
+     * @return false if the write failed
+     */
+    public synchronized boolean writeLine(String value) {
+        final long start = System.nanoTime();
+        mCachedValue = null;
+
+        boolean written = false;
+        try {
+            if (mWriteChannel == null) {
+                mWriteChannel = new FileOutputStream(mFile).getChannel();
+            }
+            byte[] bytes = (value + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                mWriteChannel.write(buffer, buffer.position());
+            }
+            mBytesWritten += bytes.length;
+            written = true;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write " + mFile, e);
+            mErrors++;
+            closeWrite();
+        }
+
+        mWrites++;
+        mWriteNanos += System.nanoTime() - start;
+        return written;
+    }
+
+    /**
+     * Drops the cached value, for when the node may have been changed by
+     * someone else.
+     */
+    public synchronized void invalidate() {
+        mCachedValue = null;
+    }
+
+    public synchronized void close() {
+        mCachedValue = null;
+        closeRead();
+        closeWrite();
+    }
+
+    private void closeRead() {
+        if (mReadChannel != null) {
+            try {
+                mReadChannel.close();
+            } catch (IOException e) {
+                // Nothing we can do
+            }
+            mReadChannel = null;
+        }
+    }
+
+    private void closeWrite() {
+        if (mWriteChannel != null) {
+            try {
+                mWriteChannel.close();
+            } catch (IOException e) {
+                // Nothing we can do
+            }
+            mWriteChannel = null;
+        }
+    }
+
+    private static String firstLine(byte[] data, int length) {
+        int end = 0;
+        while (end < length && data[end] != '\n') {
+            end++;
+        }
+        return new String(data, 0, end, StandardCharsets.UTF_8);
+    }
+
+    public synchronized void dump(PrintWriter pw, String prefix) {
+        pw.print(prefix);
+        pw.print(mFile);
+        pw.print(": reads=");
+        pw.print(mReads);
+        pw.print(" cache_hits=");
+        pw.print(mCacheHits);
+        pw.print(" writes=");
+        pw.print(mWrites);
+        pw.print(" errors=");
+        pw.print(mErrors);
+        pw.print(" bytes_read=");
+        pw.print(mBytesRead);
+        pw.print(" bytes_written=");
+        pw.print(mBytesWritten);
+        pw.print(" read_us=");
+        pw.print(mReads > 0 ? mReadNanos / mReads / 1000 : 0);
+        pw.print(" write_us=");
+        pw.println(mWrites > 0 ? mWriteNanos / mWrites / 1000 : 0);
+    }
+
+    /**
+     * Dumps the metrics of every node handed out so far.
+     */
+    public static void dumpAll(PrintWriter pw, String prefix) {
+        synchronized (sNodes) {
+            for (SysfsNode node : sNodes.values()) {
+                node.dump(pw, prefix);
+            }
+        }
+    }
+}
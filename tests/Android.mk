@@ -0,0 +1,41 @@
+#
+# Copyright (C) 2016 The CyanogenMod Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+
+# Host tests for the key handler and the code it shares with the config
+# panel. The framework classes they use are replaced by the stand-ins in
+# fakes/, whose handlers run in virtual time driven by the tests.
+#
+#   make TomatoHostTests
+#   java -cp $ANDROID_HOST_OUT/framework/TomatoHostTests.jar \
+#       org.junit.runner.JUnitCore com.cyanogenmod.settings.device.AllTests
+#
+# Run com.cyanogenmod.settings.device.KeyHandlerBenchmark the same way for
+# the gesture throughput and dispatch latency.
+
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := TomatoHostTests
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    $(call all-java-files-under, fakes) \
+    $(call all-java-files-under, ../keyhandler/src) \
+    $(call all-java-files-under, ../gestures/src) \
+    $(call all-java-files-under, ../sysfs/src)
+LOCAL_MODULE_TAGS := tests
+LOCAL_STATIC_JAVA_LIBRARIES := junit
+
+include $(BUILD_HOST_JAVA_LIBRARY)
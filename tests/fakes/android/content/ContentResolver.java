@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Host stand-in for the framework's ContentResolver. It only knows about
+ * observers, and holds the settings for the CMSettings stand-in.
+ */
+public class ContentResolver {
+
+    private final ArrayList<Uri> mObservedUris = new ArrayList<Uri>();
+    private final ArrayList<ContentObserver> mObservers = new ArrayList<ContentObserver>();
+    private final HashMap<String, String> mSettings = new HashMap<String, String>();
+
+    public final void registerContentObserver(Uri uri, boolean notifyForDescendents,
+            ContentObserver observer) {
+        mObservedUris.add(uri);
+        mObservers.add(observer);
+    }
+
+    public final void unregisterContentObserver(ContentObserver observer) {
+        for (int i = mObservers.size() - 1; i >= 0; i--) {
+            if (mObservers.get(i) == observer) {
+                mObservedUris.remove(i);
+                mObservers.remove(i);
+            }
+        }
+    }
+
+    public void notifyChange(Uri uri, ContentObserver observer) {
+        for (int i = 0; i < mObservers.size(); i++) {
+            if (mObservedUris.get(i).equals(uri)) {
+                mObservers.get(i).dispatchChange(false, uri);
+            }
+        }
+    }
+
+    public String getSetting(String name) {
+        return mSettings.get(name);
+    }
+
+    public void putSetting(String name, String value) {
+        mSettings.put(name, value);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import android.content.res.Resources;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Host stand-in for the framework's Context. The system services are
+ * whatever the test adds, broadcasts sent are only counted, and
+ * {@link #deliverBroadcast(Intent)} plays the system sending one.
+ */
+public class Context {
+
+    public static final String CAMERA_SERVICE = "camera";
+    public static final String POWER_SERVICE = "power";
+    public static final String SENSOR_SERVICE = "sensor";
+    public static final String VIBRATOR_SERVICE = "vibrator";
+
+    private final HashMap<String, Object> mServices = new HashMap<String, Object>();
+    private final Resources mResources = new Resources();
+    private final ContentResolver mContentResolver = new ContentResolver();
+    private final ArrayList<Registration> mReceivers = new ArrayList<Registration>();
+    private int mBroadcastCount;
+    private Intent mLastBroadcast;
+    private String mLastBroadcastPermission;
+
+    private static final class Registration {
+        final BroadcastReceiver receiver;
+        final IntentFilter filter;
+        final Handler scheduler;
+
+        Registration(BroadcastReceiver receiver, IntentFilter filter, Handler scheduler) {
+            this.receiver = receiver;
+            this.filter = filter;
+            this.scheduler = scheduler;
+        }
+    }
+
+    public Object getSystemService(String name) {
+        return mServices.get(name);
+    }
+
+    public Resources getResources() {
+        return mResources;
+    }
+
+    public ContentResolver getContentResolver() {
+        return mContentResolver;
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        return registerReceiver(receiver, filter, null, null);
+    }
+
+    public Intent registerReceiver(BroadcastReceiver receiver, IntentFilter filter,
+            String broadcastPermission, Handler scheduler) {
+        mReceivers.add(new Registration(receiver, filter, scheduler));
+        return null;
+    }
+
+    public void unregisterReceiver(BroadcastReceiver receiver) {
+        for (int i = 0; i < mReceivers.size(); i++) {
+            if (mReceivers.get(i).receiver == receiver) {
+                mReceivers.remove(i);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Receiver not registered: " + receiver);
+    }
+
+    public void sendBroadcast(Intent intent, String receiverPermission) {
+        mBroadcastCount++;
+        mLastBroadcast = intent;
+        mLastBroadcastPermission = receiverPermission;
+    }
+
+    public void addSystemService(String name, Object service) {
+        mServices.put(name, service);
+    }
+
+    /**
+     * Delivers a broadcast to the receivers registered for it, on their
+     * handlers or right away for the ones registered without one.
+     */
+    public void deliverBroadcast(final Intent intent) {
+        for (Registration registration : new ArrayList<Registration>(mReceivers)) {
+            if (!registration.filter.hasAction(intent.getAction())) {
+                continue;
+            }
+            final BroadcastReceiver receiver = registration.receiver;
+            if (registration.scheduler == null) {
+                receiver.onReceive(this, intent);
+            } else {
+                registration.scheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        receiver.onReceive(Context.this, intent);
+                    }
+                });
+            }
+        }
+    }
+
+    public int getBroadcastCount() {
+        return mBroadcastCount;
+    }
+
+    public Intent getLastBroadcast() {
+        return mLastBroadcast;
+    }
+
+    public String getLastBroadcastPermission() {
+        return mLastBroadcastPermission;
+    }
+}
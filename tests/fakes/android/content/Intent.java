@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content;
+
+import java.util.HashMap;
+
+/**
+ * Host stand-in for the framework's Intent, with an action and float extras.
+ */
+public class Intent {
+
+    public static final String ACTION_BOOT_COMPLETED = "android.intent.action.BOOT_COMPLETED";
+    public static final String ACTION_SCREEN_OFF = "android.intent.action.SCREEN_OFF";
+    public static final String ACTION_SCREEN_ON = "android.intent.action.SCREEN_ON";
+
+    private final String mAction;
+    private HashMap<String, Float> mExtras;
+
+    public Intent(String action) {
+        mAction = action;
+    }
+
+    public String getAction() {
+        return mAction;
+    }
+
+    public Intent putExtra(String name, float value) {
+        if (mExtras == null) {
+            mExtras = new HashMap<String, Float>();
+        }
+        mExtras.put(name, value);
+        return this;
+    }
+
+    public float getFloatExtra(String name, float defaultValue) {
+        Float value = mExtras != null ? mExtras.get(name) : null;
+        return value != null ? value : defaultValue;
+    }
+}
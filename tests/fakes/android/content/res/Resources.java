@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.content.res;
+
+import java.util.HashMap;
+
+/**
+ * Host stand-in for the framework's Resources, holding the values a test
+ * sets up.
+ */
+public class Resources {
+
+    private final HashMap<Integer, Object> mValues = new HashMap<Integer, Object>();
+
+    public static class NotFoundException extends RuntimeException {
+        public NotFoundException(String name) {
+            super(name);
+        }
+    }
+
+    public int getInteger(int id) {
+        return (Integer) getValue(id);
+    }
+
+    public boolean getBoolean(int id) {
+        return (Boolean) getValue(id);
+    }
+
+    private Object getValue(int id) {
+        Object value = mValues.get(id);
+        if (value == null) {
+            throw new NotFoundException("Resource ID #0x" + Integer.toHexString(id));
+        }
+        return value;
+    }
+
+    public void setInteger(int id, int value) {
+        mValues.put(id, value);
+    }
+
+    public void setBoolean(int id, boolean value) {
+        mValues.put(id, value);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.database;
+
+import android.net.Uri;
+import android.os.Handler;
+
+/**
+ * Host stand-in for the framework's ContentObserver.
+ */
+public abstract class ContentObserver {
+
+    private final Handler mHandler;
+
+    public ContentObserver(Handler handler) {
+        mHandler = handler;
+    }
+
+    public void onChange(boolean selfChange) {
+    }
+
+    public void onChange(boolean selfChange, Uri uri) {
+        onChange(selfChange);
+    }
+
+    public final void dispatchChange(final boolean selfChange, final Uri uri) {
+        if (mHandler == null) {
+            onChange(selfChange, uri);
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onChange(selfChange, uri);
+            }
+        });
+    }
+}
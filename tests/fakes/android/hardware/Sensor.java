@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+/**
+ * Host stand-in for the framework's Sensor, created by the test.
+ */
+public final class Sensor {
+
+    public static final int TYPE_PROXIMITY = 8;
+
+    public static final int REPORTING_MODE_CONTINUOUS = 0;
+    public static final int REPORTING_MODE_ON_CHANGE = 1;
+
+    private final int mType;
+    private final float mMaxRange;
+    private final int mReportingMode;
+
+    public Sensor(int type, float maxRange, int reportingMode) {
+        mType = type;
+        mMaxRange = maxRange;
+        mReportingMode = reportingMode;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    public float getMaximumRange() {
+        return mMaxRange;
+    }
+
+    public int getReportingMode() {
+        return mReportingMode;
+    }
+}
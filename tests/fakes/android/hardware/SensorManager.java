@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware;
+
+import android.os.Handler;
+
+import java.util.ArrayList;
+
+/**
+ * Host stand-in for the framework's SensorManager. Readings are only
+ * delivered when the test sends them with {@link #sendEvent(Sensor, float)}.
+ * Registrations are kept once made, so registering a listener again does not
+ * allocate.
+ */
+public class SensorManager {
+
+    public static final int SENSOR_DELAY_FASTEST = 0;
+    public static final int SENSOR_DELAY_NORMAL = 3;
+
+    private final Sensor[] mSensors;
+    private final ArrayList<Registration> mRegistrations = new ArrayList<Registration>();
+    private int mRegisterCount;
+
+    private static final class Registration implements Runnable {
+        final SensorEventListener listener;
+        Sensor sensor;
+        Handler handler;
+        boolean active;
+        final SensorEvent event = new SensorEvent(3);
+
+        Registration(SensorEventListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            if (active) {
+                listener.onSensorChanged(event);
+            }
+        }
+    }
+
+    public SensorManager(Sensor... sensors) {
+        mSensors = sensors;
+    }
+
+    public Sensor getDefaultSensor(int type) {
+        for (Sensor sensor : mSensors) {
+            if (sensor.getType() == type) {
+                return sensor;
+            }
+        }
+        return null;
+    }
+
+    public boolean registerListener(SensorEventListener listener, Sensor sensor,
+            int samplingPeriodUs, Handler handler) {
+        Registration registration = findRegistration(listener);
+        if (registration == null) {
+            registration = new Registration(listener);
+            mRegistrations.add(registration);
+        } else if (registration.active) {
+            // Already registered, like the real one this is refused
+            return false;
+        }
+        registration.sensor = sensor;
+        registration.handler = handler;
+        registration.active = true;
+        mRegisterCount++;
+        return true;
+    }
+
+    public void unregisterListener(SensorEventListener listener) {
+        Registration registration = findRegistration(listener);
+        if (registration != null) {
+            registration.active = false;
+        }
+    }
+
+    private Registration findRegistration(SensorEventListener listener) {
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            if (mRegistrations.get(i).listener == listener) {
+                return mRegistrations.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Posts a reading of the sensor to the listeners registered for it, on
+     * their handlers.
+     */
+    public void sendEvent(Sensor sensor, float value) {
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            Registration registration = mRegistrations.get(i);
+            if (registration.active && registration.sensor == sensor) {
+                registration.event.sensor = sensor;
+                registration.event.values[0] = value;
+                registration.handler.post(registration);
+            }
+        }
+    }
+
+    /**
+     * Returns how many listeners are registered right now.
+     */
+    public int getListenerCount() {
+        int count = 0;
+        for (int i = 0; i < mRegistrations.size(); i++) {
+            if (mRegistrations.get(i).active) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many registrations went through so far.
+     */
+    public int getRegisterCount() {
+        return mRegisterCount;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.camera2;
+
+/**
+ * Host stand-in for the framework's CameraAccessException.
+ */
+public class CameraAccessException extends Exception {
+
+    public static final int CAMERA_DISCONNECTED = 2;
+
+    private final int mReason;
+
+    public CameraAccessException(int problem) {
+        super("Camera access failed: " + problem);
+        mReason = problem;
+    }
+
+    public final int getReason() {
+        return mReason;
+    }
+}
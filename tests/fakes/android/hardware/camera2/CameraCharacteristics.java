@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.camera2;
+
+/**
+ * Host stand-in for the framework's CameraCharacteristics, only the lens
+ * facing.
+ */
+public final class CameraCharacteristics {
+
+    public static final int LENS_FACING_FRONT = 0;
+    public static final int LENS_FACING_BACK = 1;
+
+    public static final Key<Integer> LENS_FACING = new Key<Integer>("android.lens.facing");
+
+    public static final class Key<T> {
+        private final String mName;
+
+        Key(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+    }
+
+    private final int mLensFacing;
+
+    CameraCharacteristics(int lensFacing) {
+        mLensFacing = lensFacing;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<T> key) {
+        if (key == LENS_FACING) {
+            return (T) Integer.valueOf(mLensFacing);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.hardware.camera2;
+
+import android.os.Handler;
+
+/**
+ * Host stand-in for the framework's CameraManager. The cameras are given by
+ * the test, with ids "0", "1" and so on. Only the last torch callback
+ * registered is kept, and it is only told about changes.
+ */
+public final class CameraManager {
+
+    private final int[] mLensFacing;
+    private final String[] mIds;
+    private final boolean[] mTorchEnabled;
+    private TorchCallback mTorchCallback;
+    private Handler mTorchHandler;
+    private int mChangedCamera;
+    private boolean mAvailable = true;
+
+    // Reused for every change so that toggling the torch does not allocate
+    private final Runnable mNotifyTorchChanged = new Runnable() {
+        @Override
+        public void run() {
+            mTorchCallback.onTorchModeChanged(mIds[mChangedCamera],
+                    mTorchEnabled[mChangedCamera]);
+        }
+    };
+
+    public abstract static class TorchCallback {
+        public void onTorchModeUnavailable(String cameraId) {
+        }
+
+        public void onTorchModeChanged(String cameraId, boolean enabled) {
+        }
+    }
+
+    public CameraManager(int... lensFacing) {
+        mLensFacing = lensFacing;
+        mTorchEnabled = new boolean[lensFacing.length];
+        mIds = new String[lensFacing.length];
+        for (int i = 0; i < mIds.length; i++) {
+            mIds[i] = Integer.toString(i);
+        }
+    }
+
+    public String[] getCameraIdList() throws CameraAccessException {
+        checkAvailable();
+        return mIds.clone();
+    }
+
+    public CameraCharacteristics getCameraCharacteristics(String cameraId)
+            throws CameraAccessException {
+        checkAvailable();
+        return new CameraCharacteristics(mLensFacing[getIndex(cameraId)]);
+    }
+
+    public void registerTorchCallback(TorchCallback callback, Handler handler) {
+        mTorchCallback = callback;
+        mTorchHandler = handler;
+    }
+
+    public void setTorchMode(String cameraId, boolean enabled) throws CameraAccessException {
+        checkAvailable();
+        final int index = getIndex(cameraId);
+        if (mTorchEnabled[index] == enabled) {
+            return;
+        }
+        mTorchEnabled[index] = enabled;
+        if (mTorchCallback != null) {
+            mChangedCamera = index;
+            mTorchHandler.post(mNotifyTorchChanged);
+        }
+    }
+
+    /**
+     * Returns whether the torch of the camera is on.
+     */
+    public boolean isTorchEnabled(String cameraId) {
+        return mTorchEnabled[getIndex(cameraId)];
+    }
+
+    /**
+     * Makes the calls that talk to the camera service fail, or work again.
+     */
+    public void setAvailable(boolean available) {
+        mAvailable = available;
+    }
+
+    private void checkAvailable() throws CameraAccessException {
+        if (!mAvailable) {
+            throw new CameraAccessException(CameraAccessException.CAMERA_DISCONNECTED);
+        }
+    }
+
+    private int getIndex(String cameraId) {
+        final int index;
+        try {
+            index = Integer.parseInt(cameraId);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unknown camera " + cameraId);
+        }
+        if (index < 0 || index >= mLensFacing.length) {
+            throw new IllegalArgumentException("Unknown camera " + cameraId);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.media.session;
+
+import android.content.Context;
+import android.view.KeyEvent;
+
+/**
+ * Host stand-in for the framework's MediaSessionLegacyHelper, remembering
+ * the media button events it is sent.
+ */
+public class MediaSessionLegacyHelper {
+
+    private static MediaSessionLegacyHelper sInstance;
+
+    private int mEventCount;
+    private KeyEvent mLastEvent;
+
+    public static synchronized MediaSessionLegacyHelper getHelper(Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaSessionLegacyHelper();
+        }
+        return sInstance;
+    }
+
+    public void sendMediaButtonEvent(KeyEvent keyEvent, boolean needWakeLock) {
+        mEventCount++;
+        mLastEvent = keyEvent;
+    }
+
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    public KeyEvent getLastEvent() {
+        return mLastEvent;
+    }
+
+    /**
+     * Forgets the events sent so far, for a test to start from a clean state.
+     */
+    public static synchronized void reset() {
+        sInstance = null;
+    }
+}
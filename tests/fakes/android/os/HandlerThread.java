@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in for the framework's HandlerThread. It does not start a
+ * thread, its messages are run by the test through {@link Looper}.
+ */
+public class HandlerThread {
+
+    private final String mName;
+    private final int mPriority;
+    private Looper mLooper;
+
+    public HandlerThread(String name) {
+        this(name, Process.THREAD_PRIORITY_DEFAULT);
+    }
+
+    public HandlerThread(String name, int priority) {
+        mName = name;
+        mPriority = priority;
+    }
+
+    public void start() {
+        mLooper = new Looper();
+    }
+
+    public Looper getLooper() {
+        return mLooper;
+    }
+
+    public boolean quit() {
+        return quitSafely();
+    }
+
+    public boolean quitSafely() {
+        if (mLooper == null) {
+            return false;
+        }
+        mLooper.quitSafely();
+        return true;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+}
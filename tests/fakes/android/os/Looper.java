@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in for the framework's Looper. Nothing runs on a thread of its
+ * own: all loopers share one message queue ordered by virtual time, which the
+ * test drains from its own thread with {@link #runUntilIdle()} and
+ * {@link #advance(long)}.
+ */
+public final class Looper {
+
+    private static final Object sLock = new Object();
+    // Ordered by when, then by the order the messages were sent in
+    private static Message sMessages;
+
+    private boolean mQuitting;
+
+    Looper() {
+    }
+
+    public void quit() {
+        quitSafely();
+    }
+
+    public void quitSafely() {
+        synchronized (sLock) {
+            mQuitting = true;
+        }
+    }
+
+    boolean enqueueMessage(Message msg, long when) {
+        synchronized (sLock) {
+            if (mQuitting) {
+                msg.recycle();
+                return false;
+            }
+            msg.when = when;
+            Message p = sMessages;
+            if (p == null || when < p.when) {
+                msg.next = p;
+                sMessages = msg;
+                return true;
+            }
+            while (p.next != null && p.next.when <= when) {
+                p = p.next;
+            }
+            msg.next = p.next;
+            p.next = msg;
+            return true;
+        }
+    }
+
+    static boolean hasMessages(Handler h, int what) {
+        synchronized (sLock) {
+            for (Message p = sMessages; p != null; p = p.next) {
+                if (p.target == h && p.what == what) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    static void removeMessages(Handler h, int what) {
+        synchronized (sLock) {
+            Message prev = null;
+            Message p = sMessages;
+            while (p != null) {
+                Message n = p.next;
+                if (p.target == h && p.what == what) {
+                    if (prev == null) {
+                        sMessages = n;
+                    } else {
+                        prev.next = n;
+                    }
+                    p.recycle();
+                } else {
+                    prev = p;
+                }
+                p = n;
+            }
+        }
+    }
+
+    private static Message next(long now) {
+        synchronized (sLock) {
+            Message p = sMessages;
+            if (p == null || p.when > now) {
+                return null;
+            }
+            sMessages = p.next;
+            p.next = null;
+            return p;
+        }
+    }
+
+    /**
+     * Runs every message that is due at the current virtual time, including
+     * the ones they send for the same time.
+     *
+     * @return the number of messages run
+     */
+    public static int runUntilIdle() {
+        final long now = SystemClock.uptimeMillis();
+        int count = 0;
+        Message msg;
+        while ((msg = next(now)) != null) {
+            if (!msg.target.getLooper().mQuitting) {
+                msg.target.dispatchMessage(msg);
+                count++;
+            }
+            msg.recycle();
+        }
+        return count;
+    }
+
+    /**
+     * Moves virtual time forward, running every message on the way at the
+     * time it is due.
+     */
+    public static void advance(long millis) {
+        final long until = SystemClock.uptimeMillis() + millis;
+        while (true) {
+            runUntilIdle();
+            final long when;
+            synchronized (sLock) {
+                if (sMessages == null || sMessages.when > until) {
+                    break;
+                }
+                when = sMessages.when;
+            }
+            SystemClock.setUptimeMillis(Math.max(when, SystemClock.uptimeMillis()));
+        }
+        SystemClock.setUptimeMillis(until);
+        runUntilIdle();
+    }
+
+    /**
+     * Returns how many messages are waiting, due or not.
+     */
+    public static int getPendingCount() {
+        synchronized (sLock) {
+            int count = 0;
+            for (Message p = sMessages; p != null; p = p.next) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Drops every pending message and rewinds virtual time, for a test to
+     * start from a clean state.
+     */
+    public static void reset() {
+        synchronized (sLock) {
+            while (sMessages != null) {
+                Message p = sMessages;
+                sMessages = p.next;
+                p.recycle();
+            }
+        }
+        SystemClock.setUptimeMillis(SystemClock.START_MILLIS);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.ArrayList;
+
+/**
+ * Host stand-in for the framework's PowerManager. Timed wakelocks expire in
+ * virtual time.
+ */
+public class PowerManager {
+
+    public static final int PARTIAL_WAKE_LOCK = 0x00000001;
+
+    private final ArrayList<WakeLock> mWakeLocks = new ArrayList<WakeLock>();
+
+    public WakeLock newWakeLock(int levelAndFlags, String tag) {
+        WakeLock wakeLock = new WakeLock(tag);
+        mWakeLocks.add(wakeLock);
+        return wakeLock;
+    }
+
+    /**
+     * Returns the wakelock created with the given tag, or null.
+     */
+    public WakeLock getWakeLock(String tag) {
+        for (WakeLock wakeLock : mWakeLocks) {
+            if (wakeLock.mTag.equals(tag)) {
+                return wakeLock;
+            }
+        }
+        return null;
+    }
+
+    public final class WakeLock {
+        private final String mTag;
+        private boolean mRefCounted = true;
+        private int mCount;
+        private boolean mHeld;
+        // uptimeMillis() at which a timed acquire runs out, 0 if untimed
+        private long mReleaseTime;
+
+        WakeLock(String tag) {
+            mTag = tag;
+        }
+
+        public void setReferenceCounted(boolean value) {
+            mRefCounted = value;
+        }
+
+        public void acquire() {
+            acquireLocked();
+            mReleaseTime = 0;
+        }
+
+        public void acquire(long timeout) {
+            acquireLocked();
+            mReleaseTime = SystemClock.uptimeMillis() + timeout;
+        }
+
+        private void acquireLocked() {
+            expire();
+            if (!mRefCounted || mCount++ == 0) {
+                mHeld = true;
+            }
+        }
+
+        public void release() {
+            expire();
+            if (!mRefCounted || --mCount == 0) {
+                mHeld = false;
+                mReleaseTime = 0;
+            }
+            if (mCount < 0) {
+                throw new RuntimeException("WakeLock under-locked " + mTag);
+            }
+        }
+
+        public boolean isHeld() {
+            expire();
+            return mHeld;
+        }
+
+        /**
+         * Returns the uptimeMillis() at which the current hold runs out, 0
+         * if it is not held or held without a timeout.
+         */
+        public long getReleaseTime() {
+            expire();
+            return mReleaseTime;
+        }
+
+        private void expire() {
+            if (mHeld && mReleaseTime != 0 && SystemClock.uptimeMillis() >= mReleaseTime) {
+                mHeld = false;
+                mCount = 0;
+                mReleaseTime = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in for the framework's SystemClock. Time only moves when a test
+ * advances it through {@link Looper#advance(long)}, and the device never
+ * sleeps, so uptime and elapsed realtime are the same clock.
+ */
+public final class SystemClock {
+
+    // Nonzero so that times taken at the start of a test are not mistaken
+    // for unset ones
+    static final long START_MILLIS = 10000;
+
+    private static long sNanos = START_MILLIS * 1000000L;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return sNanos / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return sNanos / 1000000L;
+    }
+
+    public static long elapsedRealtimeNanos() {
+        return sNanos;
+    }
+
+    static void setUptimeMillis(long millis) {
+        sNanos = millis * 1000000L;
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+/**
+ * Host stand-in for the framework's Vibrator, counting vibrations.
+ */
+public class Vibrator {
+
+    private final boolean mHasVibrator;
+    private int mVibrateCount;
+
+    public Vibrator(boolean hasVibrator) {
+        mHasVibrator = hasVibrator;
+    }
+
+    public boolean hasVibrator() {
+        return mHasVibrator;
+    }
+
+    public void vibrate(long milliseconds) {
+        mVibrateCount++;
+    }
+
+    public int getVibrateCount() {
+        return mVibrateCount;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cyanogenmod.providers;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+/**
+ * Host stand-in for the CM SDK's CMSettings, storing the settings in the
+ * ContentResolver stand-in and notifying its observers of changes.
+ */
+public final class CMSettings {
+
+    public static final class System {
+        public static final String PROXIMITY_ON_WAKE = "proximity_on_wake";
+        public static final String TOUCHSCREEN_GESTURE_HAPTIC_FEEDBACK =
+                "touchscreen_gesture_haptic_feedback";
+
+        private static final String CONTENT_URI = "content://cmsettings/system/";
+
+        public static Uri getUriFor(String name) {
+            return Uri.parse(CONTENT_URI + name);
+        }
+
+        public static int getInt(ContentResolver cr, String name, int def) {
+            String value = cr.getSetting(name);
+            try {
+                return value != null ? Integer.parseInt(value) : def;
+            } catch (NumberFormatException e) {
+                return def;
+            }
+        }
+
+        public static boolean putInt(ContentResolver cr, String name, int value) {
+            cr.putSetting(name, Integer.toString(value));
+            cr.notifyChange(getUriFor(name), null);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import com.cyanogenmod.settings.device.gestures.GestureRegistryTest;
+import com.cyanogenmod.settings.device.sysfs.SysfsNodeTest;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+/**
+ * The host tests, without the benchmarks.
+ */
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+    GestureQueueTest.class,
+    GestureStatsTest.class,
+    GestureRegistryTest.class,
+    KeyHandlerTest.class,
+    SysfsNodeTest.class,
+})
+public class AllTests {
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures what a piece of code allocates on the calling thread, once the JIT
+ * has had a chance to compile it.
+ */
+final class Allocations {
+
+    private static final int WARM_UP_RUNS = 10000;
+    private static final int MEASURED_RUNS = 1000;
+
+    private Allocations() {
+    }
+
+    /**
+     * Returns the bytes allocated so far by the calling thread, or -1 if the
+     * JVM can't tell.
+     */
+    static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        return ((com.sun.management.ThreadMXBean) bean)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Returns the bytes allocated by one run of body after a warm-up, or -1
+     * if the JVM can't tell.
+     */
+    static long measure(Runnable body) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            body.run();
+        }
+        final long before = allocatedBytes();
+        if (before < 0) {
+            return -1;
+        }
+        // Calibrate for whatever reading the counter costs
+        final long overhead = allocatedBytes() - before;
+        final long start = allocatedBytes();
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            body.run();
+        }
+        final long allocated = allocatedBytes() - start - overhead;
+        return Math.max(allocated, 0) / MEASURED_RUNS;
+    }
+
+    /**
+     * Asserts that running body after a warm-up allocates nothing.
+     */
+    static void assertNoAllocation(String message, Runnable body) {
+        final long allocated = measure(body);
+        if (allocated < 0) {
+            System.out.println("Skipping allocation check, not supported by this JVM");
+            return;
+        }
+        assertTrue(message + " allocated " + allocated + " bytes per run", allocated == 0);
+    }
+}
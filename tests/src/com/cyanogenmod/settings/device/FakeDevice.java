@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.hardware.Sensor;
+import android.hardware.SensorManager;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.media.session.MediaSessionLegacyHelper;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.Vibrator;
+import android.view.KeyEvent;
+
+import cyanogenmod.providers.CMSettings;
+
+/**
+ * The device as the key handler sees it, put together from the framework
+ * stand-ins in tests/fakes. Creating one resets their shared state.
+ */
+final class FakeDevice {
+
+    static final int PROXIMITY_CHECK_TIMEOUT = 250;
+    static final float PROXIMITY_MAX_RANGE = 5f;
+    static final String REAR_CAMERA_ID = "1";
+
+    // Input device the touchscreen reports its gestures from
+    private static final int TOUCHSCREEN_DEVICE_ID = 2;
+
+    final Context context = new Context();
+    final PowerManager powerManager = new PowerManager();
+    final Sensor proximitySensor = new Sensor(Sensor.TYPE_PROXIMITY, PROXIMITY_MAX_RANGE,
+            Sensor.REPORTING_MODE_ON_CHANGE);
+    final SensorManager sensorManager = new SensorManager(proximitySensor);
+    final Vibrator vibrator = new Vibrator(true);
+    final CameraManager cameraManager = new CameraManager(
+            CameraCharacteristics.LENS_FACING_FRONT, CameraCharacteristics.LENS_FACING_BACK);
+
+    FakeDevice() {
+        Looper.reset();
+        SystemProperties.reset();
+        MediaSessionLegacyHelper.reset();
+
+        context.addSystemService(Context.POWER_SERVICE, powerManager);
+        context.addSystemService(Context.SENSOR_SERVICE, sensorManager);
+        context.addSystemService(Context.VIBRATOR_SERVICE, vibrator);
+        context.addSystemService(Context.CAMERA_SERVICE, cameraManager);
+
+        final Resources resources = context.getResources();
+        resources.setInteger(
+                org.cyanogenmod.platform.internal.R.integer.config_proximityCheckTimeout,
+                PROXIMITY_CHECK_TIMEOUT);
+        resources.setBoolean(
+                org.cyanogenmod.platform.internal.R.bool.config_proximityCheckOnWake, true);
+        resources.setBoolean(org.cyanogenmod.platform.internal.R.bool
+                .config_proximityCheckOnWakeEnabledByDefault, false);
+    }
+
+    void bootCompleted() {
+        context.deliverBroadcast(new Intent(Intent.ACTION_BOOT_COMPLETED));
+        Looper.runUntilIdle();
+    }
+
+    void setScreenOn(boolean on) {
+        context.deliverBroadcast(new Intent(on ? Intent.ACTION_SCREEN_ON
+                : Intent.ACTION_SCREEN_OFF));
+        Looper.runUntilIdle();
+    }
+
+    void setProximityCheckEnabled(boolean enabled) {
+        CMSettings.System.putInt(context.getContentResolver(),
+                CMSettings.System.PROXIMITY_ON_WAKE, enabled ? 1 : 0);
+        Looper.runUntilIdle();
+    }
+
+    /**
+     * Has the proximity sensor report, the listeners get the reading once
+     * the loopers run.
+     */
+    void sendProximity(boolean far) {
+        sensorManager.sendEvent(proximitySensor, far ? PROXIMITY_MAX_RANGE : 0f);
+    }
+
+    PowerManager.WakeLock getGestureWakeLock() {
+        return powerManager.getWakeLock("GestureWakeLock");
+    }
+
+    PowerManager.WakeLock getProximityWakeLock() {
+        return powerManager.getWakeLock("ProximityWakeLock");
+    }
+
+    MediaSessionLegacyHelper getMediaSession() {
+        return MediaSessionLegacyHelper.getHelper(context);
+    }
+
+    static KeyEvent createKeyEvent(int action, int scancode) {
+        final long now = SystemClock.uptimeMillis();
+        return new KeyEvent(now, now, action, KeyEvent.KEYCODE_UNKNOWN, 0, 0,
+                TOUCHSCREEN_DEVICE_ID, scancode);
+    }
+
+    /**
+     * Reports a gesture the way the touchscreen driver does, as a key press.
+     *
+     * @return whether the key handler consumed both events
+     */
+    static boolean performGesture(KeyHandler keyHandler, int scancode) {
+        final boolean down =
+                keyHandler.handleKeyEvent(createKeyEvent(KeyEvent.ACTION_DOWN, scancode));
+        final boolean up =
+                keyHandler.handleKeyEvent(createKeyEvent(KeyEvent.ACTION_UP, scancode));
+        return down && up;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import static com.cyanogenmod.settings.device.Allocations.assertNoAllocation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GestureQueueTest {
+
+    @Test
+    public void keepsArrivalOrder() {
+        GestureQueue queue = new GestureQueue(4);
+        GestureQueue.Entry entry = new GestureQueue.Entry();
+        assertTrue("offer", queue.offer(250, 0, 10, 0));
+        assertTrue("offer", queue.offer(251, 1000, 20, 0));
+
+        assertTrue("poll", queue.poll(entry));
+        assertEquals("scancode", 250, entry.scancode);
+        assertEquals("enqueue time", 10, entry.enqueueTime);
+        assertTrue("poll", queue.poll(entry));
+        assertEquals("scancode", 251, entry.scancode);
+        assertTrue("empty", !queue.poll(entry) && queue.isEmpty());
+    }
+
+    @Test
+    public void mergesRepeatsWithinWindow() {
+        GestureQueue queue = new GestureQueue(4);
+        GestureQueue.Entry entry = new GestureQueue.Entry();
+        queue.offer(250, 0, 10, 500);
+        queue.offer(250, 400, 20, 500);
+        // The window starts at the last merged gesture
+        queue.offer(250, 800, 30, 500);
+        queue.offer(250, 1400, 40, 500);
+
+        queue.poll(entry);
+        assertEquals("merged count", 3, entry.count);
+        assertEquals("enqueue time of first", 10, entry.enqueueTime);
+        queue.poll(entry);
+        assertEquals("count after window", 1, entry.count);
+    }
+
+    @Test
+    public void onlyMergesIntoTail() {
+        GestureQueue queue = new GestureQueue(4);
+        GestureQueue.Entry entry = new GestureQueue.Entry();
+        queue.offer(250, 0, 0, 500);
+        queue.offer(251, 100, 0, 500);
+        queue.offer(250, 200, 0, 500);
+
+        int entries = 0;
+        while (queue.poll(entry)) {
+            assertEquals("count", 1, entry.count);
+            entries++;
+        }
+        assertEquals("entries", 3, entries);
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        GestureQueue queue = new GestureQueue(2);
+        assertTrue("offer", queue.offer(250, 0, 0, 0));
+        assertTrue("offer", queue.offer(251, 1000, 0, 0));
+        assertTrue("full", !queue.offer(252, 2000, 0, 0));
+        // A repeat of the tail still fits
+        assertTrue("merge when full", queue.offer(251, 1000, 0, 0));
+    }
+
+    @Test
+    public void offerAndPollDoNotAllocate() {
+        final GestureQueue queue = new GestureQueue(8);
+        final GestureQueue.Entry entry = new GestureQueue.Entry();
+        assertNoAllocation("offer/poll", new Runnable() {
+            @Override
+            public void run() {
+                queue.offer(250, 0, 0, 0);
+                queue.poll(entry);
+            }
+        });
+    }
+}
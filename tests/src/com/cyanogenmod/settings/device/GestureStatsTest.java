@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import static com.cyanogenmod.settings.device.Allocations.assertNoAllocation;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class GestureStatsTest {
+
+    private static String dump(GestureStats stats) {
+        StringWriter out = new StringWriter();
+        PrintWriter pw = new PrintWriter(out);
+        stats.dump(pw, "");
+        pw.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void countsPerGesture() {
+        GestureStats stats = new GestureStats(250, 2);
+        stats.increment(250, GestureStats.COUNTER_RECEIVED);
+        stats.increment(250, GestureStats.COUNTER_RECEIVED);
+        stats.increment(251, GestureStats.COUNTER_DROPPED);
+        // Outside the range, ignored
+        stats.increment(249, GestureStats.COUNTER_RECEIVED);
+        stats.increment(252, GestureStats.COUNTER_RECEIVED);
+
+        assertEquals("received", 2, stats.getCount(250, GestureStats.COUNTER_RECEIVED));
+        assertEquals("dropped", 1, stats.getCount(251, GestureStats.COUNTER_DROPPED));
+        assertEquals("out of range", 0, stats.getCount(252, GestureStats.COUNTER_RECEIVED));
+    }
+
+    @Test
+    public void latencyPercentiles() {
+        GestureStats stats = new GestureStats(250, 1);
+        for (int i = 0; i < 99; i++) {
+            // 100us, in the [64, 128) bucket
+            stats.recordLatency(250, GestureStats.STAGE_TOTAL, 100000);
+        }
+        // 5ms, in the [4096, 8192) bucket
+        stats.recordLatency(250, GestureStats.STAGE_TOTAL, 5000000);
+
+        String dump = dump(stats);
+        assertTrue(dump, dump.contains("total: n=100 "));
+        assertTrue(dump, dump.contains(" p50<128us p90<128us p99<128us max=5000us"));
+        assertTrue(dump, !dump.contains("queue:"));
+    }
+
+    @Test
+    public void reset() {
+        GestureStats stats = new GestureStats(250, 1);
+        stats.increment(250, GestureStats.COUNTER_DISPATCHED);
+        stats.recordLatency(250, GestureStats.STAGE_QUEUE, 1000);
+        stats.reset();
+
+        assertEquals("dispatched", 0, stats.getCount(250, GestureStats.COUNTER_DISPATCHED));
+        assertTrue("no latencies", !dump(stats).contains("queue:"));
+    }
+
+    @Test
+    public void recordingDoesNotAllocate() {
+        final GestureStats stats = new GestureStats(250, 4);
+        assertNoAllocation("recordLatency/increment", new Runnable() {
+            @Override
+            public void run() {
+                stats.recordLatency(251, GestureStats.STAGE_ACTION, 123456);
+                stats.increment(251, GestureStats.COUNTER_DISPATCHED);
+            }
+        });
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Looper;
+import android.os.SystemProperties;
+import android.view.KeyEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * Reports how many gestures {@link KeyHandler#handleKeyEvent(KeyEvent)} takes
+ * per second, and how long it takes from there until the action is
+ * performed, with and without the proximity check. The framework is stood in
+ * for by tests/fakes, so the numbers are the key handler's own CPU time on
+ * the host, not including the time a device spends waiting for the sensor.
+ */
+public class KeyHandlerBenchmark {
+
+    private static final int SCANCODE_PLAY_PAUSE = 249;
+
+    private static final int WARM_UP_GESTURES = 20000;
+    private static final int MEASURED_GESTURES = 100000;
+
+    private FakeDevice mDevice;
+    private KeyHandler mKeyHandler;
+    // The same pair for every gesture, so that creating the events is not
+    // part of what is measured
+    private final KeyEvent mDownEvent =
+            FakeDevice.createKeyEvent(KeyEvent.ACTION_DOWN, SCANCODE_PLAY_PAUSE);
+    private final KeyEvent mUpEvent =
+            FakeDevice.createKeyEvent(KeyEvent.ACTION_UP, SCANCODE_PLAY_PAUSE);
+
+    private final long[] mHandleNanos = new long[MEASURED_GESTURES];
+    private final long[] mDispatchNanos = new long[MEASURED_GESTURES];
+
+    @Before
+    public void setUp() {
+        mDevice = new FakeDevice();
+    }
+
+    private void createKeyHandler(boolean proximityCheck) {
+        mKeyHandler = new KeyHandler(mDevice.context);
+        mDevice.bootCompleted();
+        mDevice.setProximityCheckEnabled(proximityCheck);
+    }
+
+    @Test
+    public void withoutProximityCheck() {
+        createKeyHandler(false);
+        run("no proximity check", false);
+    }
+
+    @Test
+    public void withProximityCheck() {
+        createKeyHandler(true);
+        run("proximity check", true);
+    }
+
+    @Test
+    public void withProximityCache() {
+        SystemProperties.set("persist.gestures.prox_cache", "true");
+        createKeyHandler(true);
+        mDevice.setScreenOn(false);
+        mDevice.sendProximity(true);
+        Looper.runUntilIdle();
+        run("proximity cache", false);
+    }
+
+    private void run(String name, boolean answerProximity) {
+        for (int i = 0; i < WARM_UP_GESTURES; i++) {
+            performGesture(i, answerProximity, false);
+        }
+        final int sent = mDevice.getMediaSession().getEventCount();
+        final long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_GESTURES; i++) {
+            performGesture(i, answerProximity, true);
+        }
+        final long elapsed = System.nanoTime() - start;
+        assertEquals("every gesture dispatched", sent + 2 * MEASURED_GESTURES,
+                mDevice.getMediaSession().getEventCount());
+
+        Arrays.sort(mHandleNanos);
+        Arrays.sort(mDispatchNanos);
+        System.out.println(String.format(
+                "KeyHandler, %s: %d gestures/s end to end, handleKeyEvent p50=%dns "
+                + "p99=%dns, dispatch latency p50=%dns p99=%dns max=%dns",
+                name, MEASURED_GESTURES * 1000000000L / elapsed,
+                percentile(mHandleNanos, 50), percentile(mHandleNanos, 99),
+                percentile(mDispatchNanos, 50), percentile(mDispatchNanos, 99),
+                mDispatchNanos[MEASURED_GESTURES - 1]));
+    }
+
+    private void performGesture(int i, boolean answerProximity, boolean measure) {
+        final long start = System.nanoTime();
+        mKeyHandler.handleKeyEvent(mDownEvent);
+        mKeyHandler.handleKeyEvent(mUpEvent);
+        final long handled = System.nanoTime();
+        Looper.runUntilIdle();
+        if (answerProximity) {
+            // Right away, the wait for a real sensor is not the key handler's
+            mDevice.sendProximity(true);
+            Looper.runUntilIdle();
+        }
+        final long dispatched = System.nanoTime();
+        if (measure) {
+            mHandleNanos[i] = handled - start;
+            mDispatchNanos[i] = dispatched - start;
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[(int) ((sorted.length - 1) * (long) percent / 100)];
+    }
+}
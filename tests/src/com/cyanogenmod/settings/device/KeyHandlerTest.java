@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device;
+
+import static com.cyanogenmod.settings.device.Allocations.assertNoAllocation;
+import static com.cyanogenmod.settings.device.FakeDevice.performGesture;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.Manifest;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.view.KeyEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives {@link KeyHandler#handleKeyEvent(KeyEvent)} through the framework
+ * stand-ins and checks what each gesture ends up doing.
+ */
+public class KeyHandlerTest {
+
+    private static final int SCANCODE_PLAY_PAUSE = 249;
+    private static final int SCANCODE_NEXT_TRACK = 251;
+    private static final int SCANCODE_CAMERA = 252;
+    private static final int SCANCODE_FLASHLIGHT = 253;
+
+    private FakeDevice mDevice;
+    private KeyHandler mKeyHandler;
+
+    @Before
+    public void setUp() {
+        mDevice = new FakeDevice();
+        mKeyHandler = new KeyHandler(mDevice.context);
+    }
+
+    @Test
+    public void ignoresOtherKeys() {
+        assertFalse(mKeyHandler.handleKeyEvent(
+                FakeDevice.createKeyEvent(KeyEvent.ACTION_UP, 100)));
+        assertEquals(0, Looper.getPendingCount());
+    }
+
+    @Test
+    public void playPauseSendsMediaKey() {
+        mDevice.bootCompleted();
+        assertTrue(performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE));
+        assertEquals("sent from the event handler", 0, mDevice.getMediaSession().getEventCount());
+
+        Looper.runUntilIdle();
+        assertEquals("down and up", 2, mDevice.getMediaSession().getEventCount());
+        KeyEvent up = mDevice.getMediaSession().getLastEvent();
+        assertEquals(KeyEvent.ACTION_UP, up.getAction());
+        assertEquals(KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, up.getKeyCode());
+        assertEquals("haptic feedback", 1, mDevice.vibrator.getVibrateCount());
+        assertFalse(mDevice.getGestureWakeLock().isHeld());
+    }
+
+    @Test
+    public void stampsMediaKeysWithDispatchTime() {
+        mDevice.bootCompleted();
+        // Well after the key handler was created
+        Looper.advance(60000);
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.runUntilIdle();
+
+        KeyEvent up = mDevice.getMediaSession().getLastEvent();
+        assertEquals(SystemClock.uptimeMillis(), up.getDownTime());
+        assertEquals(SystemClock.uptimeMillis(), up.getEventTime());
+    }
+
+    @Test
+    public void mergesRepeatedTrackGestures() {
+        mDevice.bootCompleted();
+        for (int i = 0; i < 3; i++) {
+            performGesture(mKeyHandler, SCANCODE_NEXT_TRACK);
+        }
+        Looper.runUntilIdle();
+        assertEquals("one press per gesture", 6, mDevice.getMediaSession().getEventCount());
+        assertEquals("one vibration", 1, mDevice.vibrator.getVibrateCount());
+    }
+
+    @Test
+    public void cameraKeepsDeviceAwakeForLaunch() {
+        mDevice.bootCompleted();
+        performGesture(mKeyHandler, SCANCODE_CAMERA);
+        Looper.runUntilIdle();
+
+        assertEquals(1, mDevice.context.getBroadcastCount());
+        assertEquals(cyanogenmod.content.Intent.ACTION_SCREEN_CAMERA_GESTURE,
+                mDevice.context.getLastBroadcast().getAction());
+        assertEquals(Manifest.permission.STATUS_BAR_SERVICE,
+                mDevice.context.getLastBroadcastPermission());
+        assertTrue(mDevice.getGestureWakeLock().isHeld());
+        assertEquals(SystemClock.uptimeMillis() + 1000,
+                mDevice.getGestureWakeLock().getReleaseTime());
+
+        Looper.advance(1000);
+        assertFalse(mDevice.getGestureWakeLock().isHeld());
+    }
+
+    @Test
+    public void flashlightTogglesTorch() {
+        mDevice.bootCompleted();
+        assertEquals("rear camera saved", FakeDevice.REAR_CAMERA_ID,
+                SystemProperties.get("persist.sys.gestures.torch_camera"));
+
+        performGesture(mKeyHandler, SCANCODE_FLASHLIGHT);
+        Looper.runUntilIdle();
+        assertTrue(mDevice.cameraManager.isTorchEnabled(FakeDevice.REAR_CAMERA_ID));
+        assertFalse("released once toggled", mDevice.getGestureWakeLock().isHeld());
+
+        performGesture(mKeyHandler, SCANCODE_FLASHLIGHT);
+        Looper.runUntilIdle();
+        assertFalse(mDevice.cameraManager.isTorchEnabled(FakeDevice.REAR_CAMERA_ID));
+    }
+
+    @Test
+    public void proximityNearDiscardsGesture() {
+        mDevice.bootCompleted();
+        mDevice.setProximityCheckEnabled(true);
+
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.runUntilIdle();
+        assertEquals("waiting for the sensor", 1, mDevice.sensorManager.getListenerCount());
+        assertTrue(mDevice.getProximityWakeLock().isHeld());
+
+        mDevice.sendProximity(false);
+        Looper.runUntilIdle();
+        assertEquals(0, mDevice.sensorManager.getListenerCount());
+        assertFalse(mDevice.getProximityWakeLock().isHeld());
+
+        Looper.advance(FakeDevice.PROXIMITY_CHECK_TIMEOUT);
+        assertEquals("discarded", 0, mDevice.getMediaSession().getEventCount());
+    }
+
+    @Test
+    public void proximityFarDispatchesGesture() {
+        mDevice.bootCompleted();
+        mDevice.setProximityCheckEnabled(true);
+
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.advance(40);
+        assertEquals(0, mDevice.getMediaSession().getEventCount());
+
+        mDevice.sendProximity(true);
+        Looper.runUntilIdle();
+        assertEquals(2, mDevice.getMediaSession().getEventCount());
+        assertEquals(0, mDevice.sensorManager.getListenerCount());
+        assertFalse(mDevice.getProximityWakeLock().isHeld());
+        assertEquals("timeout cancelled", 0, Looper.getPendingCount());
+    }
+
+    @Test
+    public void proximityTimeoutDispatchesGesture() {
+        mDevice.bootCompleted();
+        mDevice.setProximityCheckEnabled(true);
+
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.advance(FakeDevice.PROXIMITY_CHECK_TIMEOUT - 1);
+        assertEquals(0, mDevice.getMediaSession().getEventCount());
+
+        Looper.advance(1);
+        assertEquals(2, mDevice.getMediaSession().getEventCount());
+        assertEquals("stopped waiting", 0, mDevice.sensorManager.getListenerCount());
+        assertFalse(mDevice.getProximityWakeLock().isHeld());
+    }
+
+    @Test
+    public void proximityCacheSkipsSensorWait() {
+        SystemProperties.set("persist.gestures.prox_cache", "true");
+        mKeyHandler = new KeyHandler(mDevice.context);
+        mDevice.bootCompleted();
+        mDevice.setProximityCheckEnabled(true);
+        mDevice.setScreenOn(false);
+        mDevice.sendProximity(true);
+        Looper.runUntilIdle();
+        final int registered = mDevice.sensorManager.getRegisterCount();
+
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.runUntilIdle();
+        assertEquals("dispatched right away", 2, mDevice.getMediaSession().getEventCount());
+
+        mDevice.sendProximity(false);
+        Looper.runUntilIdle();
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.advance(FakeDevice.PROXIMITY_CHECK_TIMEOUT);
+        assertEquals("discarded", 2, mDevice.getMediaSession().getEventCount());
+        assertEquals("no check listener", registered, mDevice.sensorManager.getRegisterCount());
+    }
+
+    @Test
+    public void settingsChangeIsPickedUp() {
+        mDevice.bootCompleted();
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.runUntilIdle();
+        assertEquals("no check by default", 2, mDevice.getMediaSession().getEventCount());
+
+        mDevice.setProximityCheckEnabled(true);
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.runUntilIdle();
+        assertEquals(1, mDevice.sensorManager.getListenerCount());
+    }
+
+    @Test
+    public void countsSnapshotReadsOnly() {
+        // Before boot completes the first read loads the settings itself
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        assertEquals(0, mKeyHandler.getSettingsQueriesAvoided());
+        // The haptic feedback check reads the snapshot
+        Looper.runUntilIdle();
+        assertEquals(1, mKeyHandler.getSettingsQueriesAvoided());
+
+        mDevice.bootCompleted();
+        performGesture(mKeyHandler, SCANCODE_PLAY_PAUSE);
+        Looper.runUntilIdle();
+        assertEquals(3, mKeyHandler.getSettingsQueriesAvoided());
+    }
+
+    /**
+     * Handles and dispatches one gesture, from events created up front so
+     * that only the key handler's allocations are measured.
+     */
+    private Runnable gesture(int scancode) {
+        final KeyEvent down = FakeDevice.createKeyEvent(KeyEvent.ACTION_DOWN, scancode);
+        final KeyEvent up = FakeDevice.createKeyEvent(KeyEvent.ACTION_UP, scancode);
+        return new Runnable() {
+            @Override
+            public void run() {
+                mKeyHandler.handleKeyEvent(down);
+                mKeyHandler.handleKeyEvent(up);
+                Looper.runUntilIdle();
+            }
+        };
+    }
+
+    @Test
+    public void cameraGestureDoesNotAllocate() {
+        mDevice.bootCompleted();
+        assertNoAllocation("camera gesture", gesture(SCANCODE_CAMERA));
+    }
+
+    @Test
+    public void flashlightGestureDoesNotAllocate() {
+        mDevice.bootCompleted();
+        assertNoAllocation("flashlight gesture", gesture(SCANCODE_FLASHLIGHT));
+    }
+
+    @Test
+    public void proximityCheckDoesNotAllocate() {
+        mDevice.bootCompleted();
+        mDevice.setProximityCheckEnabled(true);
+        final Runnable gesture = gesture(SCANCODE_CAMERA);
+        assertNoAllocation("gesture with proximity check", new Runnable() {
+            @Override
+            public void run() {
+                gesture.run();
+                mDevice.sendProximity(true);
+                Looper.runUntilIdle();
+            }
+        });
+    }
+
+    // Written by the measured code, so the events are really allocated
+    private static KeyEvent sEscapedEvent;
+
+    @Test
+    public void mediaGestureOnlyAllocatesKeyEvents() {
+        mDevice.bootCompleted();
+        final long gestureBytes = Allocations.measure(gesture(SCANCODE_PLAY_PAUSE));
+        final long eventBytes = Allocations.measure(new Runnable() {
+            @Override
+            public void run() {
+                final long now = SystemClock.uptimeMillis();
+                sEscapedEvent = new KeyEvent(now, now, KeyEvent.ACTION_DOWN,
+                        KeyEvent.KEYCODE_MEDIA_PLAY_PAUSE, 0);
+                sEscapedEvent = KeyEvent.changeAction(sEscapedEvent, KeyEvent.ACTION_UP);
+            }
+        });
+        assertTrue("media gesture allocated " + gestureBytes + " bytes, its key events "
+                + eventBytes, gestureBytes <= eventBytes);
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.gestures;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GestureRegistryTest {
+
+    @Test
+    public void lookupByScancode() {
+        for (int i = 0; i < GestureRegistry.getGestureCount(); i++) {
+            GestureRegistry.Gesture gesture = GestureRegistry.getGestureAt(i);
+            assertTrue("lookup " + gesture.scancode,
+                    GestureRegistry.get(gesture.scancode) == gesture);
+        }
+        assertTrue("below range", GestureRegistry.get(GestureRegistry.FIRST_SCANCODE - 1) == null);
+        assertTrue("above range", GestureRegistry.get(
+                GestureRegistry.FIRST_SCANCODE + GestureRegistry.SCANCODE_COUNT) == null);
+    }
+
+    @Test
+    public void controlBitsAreDistinct() {
+        long seen = 0;
+        for (int i = 0; i < GestureRegistry.getGestureCount(); i++) {
+            long bit = GestureRegistry.getGestureAt(i).controlBit;
+            assertEquals("single bit", 1, Long.bitCount(bit));
+            assertTrue("distinct bit " + bit, (seen & bit) == 0);
+            seen |= bit;
+        }
+    }
+
+    @Test
+    public void controlMask() {
+        assertEquals("music", 0x0e,
+                GestureRegistry.getControlMask(GestureRegistry.TOUCHSCREEN_MUSIC_GESTURE_KEY));
+        assertEquals("camera", 0x80,
+                GestureRegistry.getControlMask(GestureRegistry.TOUCHSCREEN_CAMERA_GESTURE_KEY));
+        assertEquals("unknown", 0, GestureRegistry.getControlMask("unknown"));
+    }
+}
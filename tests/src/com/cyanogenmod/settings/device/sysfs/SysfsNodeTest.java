@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.cyanogenmod.settings.device.sysfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+/**
+ * Runs SysfsNode against plain files in a temporary directory standing in
+ * for /sys.
+ */
+public class SysfsNodeTest {
+
+    private static final String NODE = "/sys/devices/virtual/test/node";
+
+    private File mRoot;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("sysfs").toFile();
+        SysfsNode.setRoot(mRoot);
+    }
+
+    @After
+    public void tearDown() {
+        // Closes the nodes of this test before their files go away
+        SysfsNode.setRoot(null);
+        delete(mRoot);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private File createNode(String value) throws IOException {
+        File file = new File(mRoot, NODE);
+        file.getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(value);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static String readFile(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+
+    private static String dump(SysfsNode node) {
+        StringWriter out = new StringWriter();
+        PrintWriter pw = new PrintWriter(out);
+        node.dump(pw, "");
+        pw.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void readsFirstLine() throws IOException {
+        createNode("0x2e\nsecond line\n");
+        SysfsNode node = SysfsNode.get(NODE);
+        assertEquals("first line", "0x2e", node.readLine());
+        assertTrue("readable", node.canRead() && node.canWrite());
+    }
+
+    @Test
+    public void rereadsFromStart() throws IOException {
+        File file = createNode("1\n");
+        SysfsNode node = SysfsNode.get(NODE);
+        assertEquals("first read", "1", node.readLine());
+        // Stands in for the attribute changing, the channel stays open
+        FileWriter writer = new FileWriter(file);
+        writer.write("0\n");
+        writer.close();
+        assertEquals("second read", "0", node.readLine());
+    }
+
+    @Test
+    public void writesLine() throws IOException {
+        File file = createNode("");
+        SysfsNode node = SysfsNode.get(NODE);
+        assertTrue("written", node.writeLine("c=true,o=false"));
+        assertEquals("content", "c=true,o=false\n", readFile(file));
+        // Writes go to offset 0 again, like a sysfs store
+        assertTrue("written", node.writeLine("c=false"));
+        assertTrue("rewritten", readFile(file).startsWith("c=false\n"));
+    }
+
+    @Test
+    public void cache() throws IOException {
+        File file = createNode("1\n");
+        SysfsNode node = SysfsNode.get(NODE, 60000);
+        assertEquals("first read", "1", node.readLine());
+        FileWriter writer = new FileWriter(file);
+        writer.write("0\n");
+        writer.close();
+        assertEquals("cached", "1", node.readLine());
+        node.invalidate();
+        assertEquals("after invalidate", "0", node.readLine());
+        assertTrue("cache hit counted", dump(node).contains(" cache_hits=1 "));
+    }
+
+    @Test
+    public void writeDropsCache() throws IOException {
+        createNode("1\n");
+        SysfsNode node = SysfsNode.get(NODE, 60000);
+        node.readLine();
+        node.writeLine("0");
+        assertEquals("read after write", "0", node.readLine());
+    }
+
+    @Test
+    public void missingNode() {
+        SysfsNode node = SysfsNode.get("/sys/does/not/exist");
+        assertTrue("not readable", !node.canRead());
+        assertTrue("read fails", node.readLine() == null);
+        assertTrue("write fails", !node.writeLine("1"));
+        assertTrue("errors counted", dump(node).contains(" errors=2 "));
+    }
+}